@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the title drawn from glyph coverage textures, tinted when drawn, with the title drawn
+ * from full color textures.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlphaTextureTest {
+
+    private static final float[] FRACTIONS = {0f, 0.2f, 0.4f, 0.6f, 0.8f, 1f};
+
+    private static final int EXPANDED_COLOR = 0xff1565c0;
+    private static final int COLLAPSED_COLOR = 0xffd81b60;
+
+    /** Rounding of the tint and the coverage may differ by a step or two */
+    private static final int TOLERANCE = 4;
+    private static final float MAX_DIFFERING_RATIO = 0.001f;
+
+    @After
+    public void clearCaches() {
+        TitleLayoutCache.clear();
+        TitleBitmapPool.clear();
+    }
+
+    @Test
+    public void matchesFullColorTextures() {
+        final String title = TitleTestUtils.createTitle(60);
+        final CollapsingTextHelper argb = createHelper(title, false);
+        final CollapsingTextHelper alpha = createHelper(title, true);
+        final Bitmap expected = TitleTestUtils.createBitmap();
+        final Bitmap actual = TitleTestUtils.createBitmap();
+        for (float fraction : FRACTIONS) {
+            TitleTestUtils.drawFrame(argb, fraction, expected);
+            TitleTestUtils.drawFrame(alpha, fraction, actual);
+            assertSimilar(fraction, expected, actual);
+        }
+    }
+
+    @Test
+    public void tintsWithBlendedColor() {
+        final String title = TitleTestUtils.createTitle(60);
+        final CollapsingTextHelper alpha = createHelper(title, true);
+        alpha.setExpandedTextColor(ColorStateList.valueOf(EXPANDED_COLOR));
+        alpha.setCollapsedTextColor(ColorStateList.valueOf(COLLAPSED_COLOR));
+        final Bitmap expected = TitleTestUtils.createBitmap();
+        final Bitmap actual = TitleTestUtils.createBitmap();
+        for (float fraction : FRACTIONS) {
+            // Full color textures bake the color in, so they are drawn in the blended color
+            final CollapsingTextHelper argb = createHelper(title, false);
+            final ColorStateList color = ColorStateList.valueOf(CollapsingTextHelper.blendColors(
+                    EXPANDED_COLOR, COLLAPSED_COLOR, fraction));
+            argb.setExpandedTextColor(color);
+            argb.setCollapsedTextColor(color);
+            TitleTestUtils.drawFrame(argb, fraction, expected);
+            TitleTestUtils.drawFrame(alpha, fraction, actual);
+            assertSimilar(fraction, expected, actual);
+        }
+    }
+
+    @Test
+    public void quartersTextureMemory() {
+        final String title = TitleTestUtils.createTitle(60);
+        final int argbBytes = getTextureByteCount(createHelper(title, false));
+        final int alphaBytes = getTextureByteCount(createHelper(title, true));
+        assertTrue("No texture rendered", alphaBytes > 0);
+        assertEquals(argbBytes, 4 * alphaBytes);
+    }
+
+    @Test
+    public void usesFullColorForStyledTitles() {
+        final SpannableString title = new SpannableString(TitleTestUtils.createTitle(60));
+        title.setSpan(new ForegroundColorSpan(COLLAPSED_COLOR), 0, 10,
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        final int argbBytes = getTextureByteCount(createHelper(title, false));
+        final int alphaBytes = getTextureByteCount(createHelper(title, true));
+        assertEquals(argbBytes, alphaBytes);
+    }
+
+    private static CollapsingTextHelper createHelper(CharSequence title, boolean alpha) {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(title);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_TEXTURE);
+        helper.setAlphaTexturesEnabled(alpha);
+        return helper;
+    }
+
+    private static int getTextureByteCount(CollapsingTextHelper helper) {
+        TitleTestUtils.drawFrame(helper, 0.5f, TitleTestUtils.createBitmap());
+        return helper.getStats().getTextureAtlasByteCount();
+    }
+
+    private static void assertSimilar(float fraction, Bitmap expected, Bitmap actual) {
+        final float ratio = TitleTestUtils.getDifferingPixelRatio(expected, actual, TOLERANCE);
+        assertTrue("Alpha textures differ at " + fraction + ": " + ratio,
+                ratio <= MAX_DIFFERING_RATIO);
+        assertTrue("Nothing drawn at " + fraction, TitleTestUtils.countInkedPixels(actual) > 0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the cost of laying out and drawing a title depends on the number of visible lines
+ * rather than on the length of the title.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LongTitleTest {
+
+    private static final String TAG = "LongTitle";
+
+    private static final int[] LENGTHS = {100, 1000, 10000, 100000};
+    private static final int MAX_LINES = 3;
+    private static final int RUNS = 50;
+    private static final int FRAMES_PER_COLLAPSE = 60;
+
+    /** How much slower than the reference the longer titles may be, to allow for noise */
+    private static final int MAX_FACTOR = 3;
+    private static final long SLACK_NANOS = 200000;
+
+    @After
+    public void clearCache() {
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    public void layoutTimeStaysFlat() {
+        final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(TitleTestUtils.EXPANDED_TEXT_SIZE);
+        final int width = TitleTestUtils.WIDTH - 2 * 48;
+
+        final long[] medians = new long[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final String title = TitleTestUtils.createTitle(LENGTHS[i]);
+            final long[] nanos = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                TitleLayoutCache.clear();
+                final long start = System.nanoTime();
+                final TitleLayoutCache.Entry entry = TitleLayoutCache.obtain(title, paint, width,
+                        MAX_LINES, Layout.Alignment.ALIGN_NORMAL, 1f, 0f);
+                nanos[run] = System.nanoTime() - start;
+
+                assertEquals(MAX_LINES, entry.mLayout.getLineCount());
+                assertEquals('\u2026', entry.mText.charAt(entry.mText.length() - 1));
+            }
+            medians[i] = TitleTestUtils.median(nanos);
+            Log.i(TAG, LENGTHS[i] + " characters: " + medians[i] / 1000 + " us per layout");
+        }
+        assertFlat("Layout", medians);
+    }
+
+    @Test
+    public void frameTimeStaysFlat() {
+        final Bitmap bitmap = TitleTestUtils.createBitmap();
+        final Canvas canvas = new Canvas(bitmap);
+
+        final long[] medians = new long[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final CollapsingTextHelper helper =
+                    TitleTestUtils.createHelper(TitleTestUtils.createTitle(LENGTHS[i]));
+            helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+            helper.setMaxLines(MAX_LINES);
+            final long[] nanos = new long[2 * FRAMES_PER_COLLAPSE];
+            for (int frame = 0; frame < nanos.length; frame++) {
+                final int position = frame <= FRAMES_PER_COLLAPSE
+                        ? frame : 2 * FRAMES_PER_COLLAPSE - frame;
+                final long start = System.nanoTime();
+                helper.setExpansionFraction((float) position / FRAMES_PER_COLLAPSE);
+                helper.draw(canvas);
+                nanos[frame] = System.nanoTime() - start;
+            }
+            medians[i] = TitleTestUtils.median(nanos);
+            Log.i(TAG, LENGTHS[i] + " characters: " + medians[i] / 1000 + " us per frame");
+        }
+        assertFlat("Frame", medians);
+    }
+
+    /**
+     * Asserts that none of the times is much larger than the one of the 1,000 character title,
+     * which already fills all lines.
+     */
+    private static void assertFlat(String what, long[] medians) {
+        final long reference = medians[1];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            assertTrue(what + " time of " + LENGTHS[i] + " characters grows: " + medians[i]
+                            + " ns, " + reference + " ns for " + LENGTHS[1],
+                    medians[i] <= MAX_FACTOR * reference + SLACK_NANOS);
+        }
+    }
+}
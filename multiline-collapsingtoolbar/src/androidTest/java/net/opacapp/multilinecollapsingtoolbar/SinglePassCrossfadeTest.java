@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the single-pass crossfade with drawing the expanded, the collapsed and the shared
+ * text on top of each other.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SinglePassCrossfadeTest {
+
+    private static final int MAX_LINES = 3;
+    private static final float[] FRACTIONS = {0.1f, 0.3f, 0.5f, 0.7f, 0.9f};
+
+    /**
+     * Where the three texts overlap, anti-aliased edges come out a bit darker when drawn three
+     * times, so only larger differences count.
+     */
+    private static final int TOLERANCE = 64;
+    private static final float MAX_DIFFERING_RATIO = 0.002f;
+
+    /** Hebrew, which makes the paragraph right-to-left */
+    private static final String RTL_TITLE = "\u05db\u05d5\u05ea\u05e8\u05ea \u05d0\u05e8\u05d5"
+            + "\u05db\u05d4 \u05de\u05d0\u05d5\u05d3 \u05e9\u05e0\u05de\u05e9\u05db\u05ea "
+            + "\u05e2\u05dc \u05db\u05de\u05d4 \u05e9\u05d5\u05e8\u05d5\u05ea";
+
+    @After
+    public void clearCache() {
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    public void matchesThreePasses() {
+        final String title = TitleTestUtils.createTitle(120);
+        assertSimilar(title, 1f, 0f);
+        // Positive spacing moves the second line further away, which must still not be cut
+        assertSimilar(title, 1.5f, 24f);
+    }
+
+    @Test
+    public void drawsNoMoreTextThanThreePasses() {
+        final String title = TitleTestUtils.createTitle(120);
+        final CollapsingTextHelper singlePass = createHelper(title, true);
+        final CollapsingTextHelper threePasses = createHelper(title, false);
+        final Bitmap bitmap = TitleTestUtils.createBitmap();
+        for (float fraction : FRACTIONS) {
+            singlePass.getStats().reset();
+            threePasses.getStats().reset();
+            TitleTestUtils.drawFrame(singlePass, fraction, bitmap);
+            TitleTestUtils.drawFrame(threePasses, fraction, bitmap);
+            assertTrue("More text drawn in a single pass at " + fraction,
+                    singlePass.getStats().getTextDrawCount()
+                            <= threePasses.getStats().getTextDrawCount());
+        }
+    }
+
+    @Test
+    public void fallsBackForNegativeLineSpacing() {
+        final String title = TitleTestUtils.createTitle(120);
+        assertIdentical(title, 1f, -20f);
+        assertIdentical(title, 0.8f, 0f);
+    }
+
+    @Test
+    public void fallsBackForRtlText() {
+        assertIdentical(RTL_TITLE + " " + RTL_TITLE, 1f, 0f);
+        // Right-to-left words in a left-to-right paragraph are reordered as well
+        assertIdentical("Title " + RTL_TITLE + " " + TitleTestUtils.createTitle(80), 1f, 0f);
+    }
+
+    @Test
+    public void fallsBackForTabs() {
+        assertIdentical("Collapsing\ttoolbar " + TitleTestUtils.createTitle(100), 1f, 0f);
+    }
+
+    private static void assertSimilar(String title, float lineSpacingMultiplier,
+            float lineSpacingExtra) {
+        final Bitmap expected = TitleTestUtils.createBitmap();
+        final Bitmap actual = TitleTestUtils.createBitmap();
+        final CollapsingTextHelper threePasses = createHelper(title, false);
+        final CollapsingTextHelper singlePass = createHelper(title, true);
+        setLineSpacing(threePasses, lineSpacingMultiplier, lineSpacingExtra);
+        setLineSpacing(singlePass, lineSpacingMultiplier, lineSpacingExtra);
+        for (float fraction : FRACTIONS) {
+            TitleTestUtils.drawFrame(threePasses, fraction, expected);
+            TitleTestUtils.drawFrame(singlePass, fraction, actual);
+            final float ratio = TitleTestUtils.getDifferingPixelRatio(expected, actual,
+                    TOLERANCE);
+            assertTrue("Single pass differs at " + fraction + ": " + ratio,
+                    ratio <= MAX_DIFFERING_RATIO);
+        }
+    }
+
+    private static void assertIdentical(String title, float lineSpacingMultiplier,
+            float lineSpacingExtra) {
+        final Bitmap expected = TitleTestUtils.createBitmap();
+        final Bitmap actual = TitleTestUtils.createBitmap();
+        final CollapsingTextHelper threePasses = createHelper(title, false);
+        final CollapsingTextHelper singlePass = createHelper(title, true);
+        setLineSpacing(threePasses, lineSpacingMultiplier, lineSpacingExtra);
+        setLineSpacing(singlePass, lineSpacingMultiplier, lineSpacingExtra);
+        for (float fraction : FRACTIONS) {
+            TitleTestUtils.drawFrame(threePasses, fraction, expected);
+            TitleTestUtils.drawFrame(singlePass, fraction, actual);
+            assertEquals("Single pass used at " + fraction, 0f,
+                    TitleTestUtils.getDifferingPixelRatio(expected, actual, 0), 0f);
+        }
+    }
+
+    private static CollapsingTextHelper createHelper(String title, boolean singlePass) {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(title);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setMaxLines(MAX_LINES);
+        helper.setSinglePassCrossfadeEnabled(singlePass);
+        return helper;
+    }
+
+    private static void setLineSpacing(CollapsingTextHelper helper, float multiplier,
+            float extra) {
+        helper.setLineSpacingMultiplier(multiplier);
+        helper.setLineSpacingExtra(extra);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.content.res.TypedArray;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.LayoutInflater;
+
+import net.opacapp.multilinecollapsingtoolbar.test.R;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the AppCompat theme check done by every {@link CollapsingToolbarLayout} costs
+ * less than the attribute lookup it replaces, once the theme has been checked.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThemeCheckBenchmark {
+
+    private static final String TAG = "ThemeCheck";
+
+    private static final int SAMPLES = 50;
+    private static final int CALLS_PER_SAMPLE = 100;
+    private static final int TOOLBAR_COUNT = 50;
+
+    private static final int[] CHECK_ATTRS = {android.support.v7.appcompat.R.attr.colorPrimary};
+
+    @Rule
+    public final ActivityTestRule<TitleTestActivity> mActivityRule =
+            new ActivityTestRule<>(TitleTestActivity.class);
+
+    @Test
+    @UiThreadTest
+    public void checkedThemeSkipsLookup() {
+        final Activity activity = mActivityRule.getActivity();
+        ThemeUtils.checkAppCompatTheme(activity);
+
+        final long[] checkNanos = new long[SAMPLES];
+        final long[] lookupNanos = new long[SAMPLES];
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS_PER_SAMPLE; i++) {
+                ThemeUtils.checkAppCompatTheme(activity);
+            }
+            checkNanos[sample] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS_PER_SAMPLE; i++) {
+                // What every check used to cost
+                final TypedArray a = activity.obtainStyledAttributes(CHECK_ATTRS);
+                a.hasValue(0);
+                a.recycle();
+            }
+            lookupNanos[sample] = System.nanoTime() - start;
+        }
+
+        final long check = TitleTestUtils.median(checkNanos) / CALLS_PER_SAMPLE;
+        final long lookup = TitleTestUtils.median(lookupNanos) / CALLS_PER_SAMPLE;
+        Log.i(TAG, "Theme check: " + check + " ns, attribute lookup: " + lookup + " ns");
+        assertTrue("Theme check costs " + check + " ns, the lookup " + lookup + " ns",
+                2 * check < lookup);
+
+        final LayoutInflater inflater = LayoutInflater.from(activity);
+        final long start = System.nanoTime();
+        for (int i = 0; i < TOOLBAR_COUNT; i++) {
+            inflater.inflate(R.layout.test_collapsing_toolbar, null);
+        }
+        Log.i(TAG, "Inflating a toolbar: "
+                + (System.nanoTime() - start) / TOOLBAR_COUNT / 1000 + " us");
+    }
+}
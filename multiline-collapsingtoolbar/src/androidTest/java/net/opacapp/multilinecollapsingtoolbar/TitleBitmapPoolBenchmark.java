@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the garbage collection pressure of changing the title of a toolbar which scales it
+ * with textures, with and without {@link TitleBitmapPool}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleBitmapPoolBenchmark {
+
+    private static final String TAG = "TitleBitmapPool";
+
+    private static final int TITLE_CHANGES = 500;
+    private static final float[] FRACTIONS = {0.25f, 0.5f, 0.75f};
+
+    private int mDefaultMaxSize;
+
+    @Before
+    public void rememberMaxSize() {
+        mDefaultMaxSize = TitleBitmapPool.getMaxSize();
+    }
+
+    @After
+    public void restoreMaxSize() {
+        TitleBitmapPool.setMaxSize(mDefaultMaxSize);
+        TitleBitmapPool.clear();
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    public void poolReusesTextures() {
+        final Result pooled = changeTitles(mDefaultMaxSize);
+        final Result unpooled = changeTitles(0);
+        pooled.log("Pooled");
+        unpooled.log("Unpooled");
+
+        assertEquals(TITLE_CHANGES, pooled.mRebuilds);
+        assertEquals(TITLE_CHANGES, unpooled.mRebuilds);
+        // Only the very first texture is allocated, all others are taken from the pool
+        assertTrue("Pool misses: " + pooled.mMisses, pooled.mMisses <= 1);
+        assertEquals(0, unpooled.mHits);
+        assertTrue("Pool doesn't reduce allocations: " + pooled.mAllocatedBytes + " >= "
+                        + unpooled.mAllocatedBytes,
+                pooled.mAllocatedBytes < unpooled.mAllocatedBytes);
+    }
+
+    /**
+     * Changes the title {@link #TITLE_CHANGES} times, drawing a few scaled frames after each
+     * change, with a pool of {@code maxSize} bytes.
+     */
+    private static Result changeTitles(int maxSize) {
+        TitleBitmapPool.clear();
+        TitleBitmapPool.setMaxSize(maxSize);
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(createTitle(0));
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_TEXTURE);
+        final TitleStats stats = helper.getStats();
+        final Bitmap bitmap = TitleTestUtils.createBitmap();
+        final Canvas canvas = new Canvas(bitmap);
+        // Settle, so that the texture of the first title doesn't count
+        for (float fraction : FRACTIONS) {
+            helper.setExpansionFraction(fraction);
+            helper.draw(canvas);
+        }
+        stats.reset();
+
+        final int hits = TitleBitmapPool.getHitCount();
+        final int misses = TitleBitmapPool.getMissCount();
+        final long gcCount = getRuntimeStat("art.gc.gc-count");
+        final long gcTime = getRuntimeStat("art.gc.gc-time");
+        final long start = System.nanoTime();
+        for (int i = 1; i <= TITLE_CHANGES; i++) {
+            helper.setText(createTitle(i));
+            for (float fraction : FRACTIONS) {
+                helper.setExpansionFraction(fraction);
+                helper.draw(canvas);
+            }
+        }
+        final Result result = new Result();
+        result.mNanosPerChange = (System.nanoTime() - start) / TITLE_CHANGES;
+        result.mRebuilds = stats.getTextureAtlasRebuildCount();
+        result.mHits = TitleBitmapPool.getHitCount() - hits;
+        result.mMisses = TitleBitmapPool.getMissCount() - misses;
+        result.mAllocatedBytes = (long) result.mMisses * stats.getTextureAtlasByteCount();
+        result.mGcCount = gcCount >= 0 ? getRuntimeStat("art.gc.gc-count") - gcCount : -1;
+        result.mGcMillis = gcTime >= 0 ? getRuntimeStat("art.gc.gc-time") - gcTime : -1;
+        return result;
+    }
+
+    /**
+     * Returns titles which differ in their text, but not in the size of their texture.
+     */
+    private static String createTitle(int index) {
+        return "Folder " + (100 + index % 900) + " with a title";
+    }
+
+    /**
+     * Returns the runtime statistic {@code name} as a number, or {@code -1} if it is not
+     * available on this platform.
+     */
+    private static long getRuntimeStat(String name) {
+        if (Build.VERSION.SDK_INT < 23) {
+            return -1;
+        }
+        final String value = Debug.getRuntimeStat(name);
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    private static final class Result {
+        long mNanosPerChange;
+        int mRebuilds;
+        int mHits;
+        int mMisses;
+        long mAllocatedBytes;
+        long mGcCount;
+        long mGcMillis;
+
+        void log(String name) {
+            Log.i(TAG, name + ": " + mNanosPerChange / 1000 + " us per title change, "
+                    + mRebuilds + " textures, " + mHits + " pool hits, " + mMisses
+                    + " misses, " + mAllocatedBytes / 1024 + " KiB allocated, " + mGcCount
+                    + " GCs taking " + mGcMillis + " ms");
+        }
+    }
+}
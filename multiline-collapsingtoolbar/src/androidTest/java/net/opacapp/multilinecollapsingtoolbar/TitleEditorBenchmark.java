@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.view.GravityCompat;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import net.opacapp.multilinecollapsingtoolbar.test.R;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Inflates 50 toolbars with and without the batch in the constructor, and changes all title
+ * settings of 50 toolbars, once through the individual setters and once through
+ * {@link CollapsingToolbarLayout#edit()}. The recalculation passes counted by {@link TitleStats}
+ * are asserted, the times are only logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleEditorBenchmark {
+
+    private static final String TAG = "TitleEditor";
+
+    private static final int TOOLBAR_COUNT = 50;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+
+    private static final int EXPANDED_TEXT_APPEARANCE =
+            android.support.design.R.style.TextAppearance_Design_CollapsingToolbar_Expanded;
+    private static final int COLLAPSED_TEXT_APPEARANCE =
+            android.support.v7.appcompat.R.style.TextAppearance_AppCompat_Widget_ActionBar_Title;
+
+    @Rule
+    public final ActivityTestRule<TitleTestActivity> mActivityRule =
+            new ActivityTestRule<>(TitleTestActivity.class);
+
+    private FrameLayout mContainer;
+
+    @Before
+    public void setUp() throws Throwable {
+        mActivityRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mContainer = new FrameLayout(mActivityRule.getActivity());
+                mActivityRule.getActivity().setContentView(mContainer);
+            }
+        });
+    }
+
+    @Test
+    @UiThreadTest
+    public void inflate50Toolbars() {
+        final int[] unbatchedPasses;
+        CollapsingToolbarLayout.sBatchInflation = false;
+        try {
+            unbatchedPasses = countInflationPasses("without batch");
+        } finally {
+            CollapsingToolbarLayout.sBatchInflation = true;
+        }
+        final int[] batchedPasses = countInflationPasses("with batch");
+
+        // The helper defers all recalculations until the toolbar has a size, so no pass is
+        // expected while inflating either way. The batch makes sure it stays that way.
+        assertEquals("Passes while inflating with batch", 0, batchedPasses[0]);
+        assertTrue("Batch costs passes until the first layout",
+                batchedPasses[1] <= unbatchedPasses[1]);
+    }
+
+    @Test
+    @UiThreadTest
+    public void configure50Toolbars() {
+        final CollapsingToolbarLayout[] setterToolbars = inflateToolbars("setters");
+        final CollapsingToolbarLayout[] editorToolbars = inflateToolbars("editor");
+
+        long start = System.nanoTime();
+        for (CollapsingToolbarLayout toolbar : setterToolbars) {
+            configureWithSetters(toolbar);
+        }
+        final long setterNanos = System.nanoTime() - start;
+        final int setterPasses = countPasses(setterToolbars);
+
+        start = System.nanoTime();
+        for (CollapsingToolbarLayout toolbar : editorToolbars) {
+            configureWithEditor(toolbar);
+        }
+        final long editorNanos = System.nanoTime() - start;
+        final int editorPasses = countPasses(editorToolbars);
+
+        Log.i(TAG, "Configuring " + TOOLBAR_COUNT + " toolbars: " + setterNanos / 1000
+                + " us and " + setterPasses + " passes with setters, " + editorNanos / 1000
+                + " us and " + editorPasses + " passes with edit()");
+        assertEquals("One pass per toolbar", TOOLBAR_COUNT, editorPasses);
+        assertTrue("edit() isn't cheaper: " + editorPasses + " >= " + setterPasses,
+                editorPasses < setterPasses);
+    }
+
+    /**
+     * Inflates the toolbars and returns the passes counted while inflating them and in total
+     * until they have been laid out once.
+     */
+    private int[] countInflationPasses(String name) {
+        final CollapsingToolbarLayout[] toolbars = inflate(name);
+        final int inflationPasses = countPasses(toolbars);
+        layOut(toolbars);
+        final int passes = countPasses(toolbars);
+        Log.i(TAG, "Inflating " + TOOLBAR_COUNT + " toolbars (" + name + "): " + inflationPasses
+                + " passes while inflating, " + passes + " until laid out");
+        return new int[] {inflationPasses, passes};
+    }
+
+    /**
+     * Inflates the toolbars into the window and lays them out, so that their titles are
+     * recalculated whenever they change. Returns them with reset stats.
+     */
+    private CollapsingToolbarLayout[] inflateToolbars(String name) {
+        final CollapsingToolbarLayout[] toolbars = inflate(name);
+        layOut(toolbars);
+        for (CollapsingToolbarLayout toolbar : toolbars) {
+            toolbar.getTitleStats().reset();
+        }
+        return toolbars;
+    }
+
+    /**
+     * Inflates the toolbars without adding them to the window.
+     */
+    private CollapsingToolbarLayout[] inflate(String name) {
+        mContainer.removeAllViews();
+        final LayoutInflater inflater = LayoutInflater.from(mActivityRule.getActivity());
+        final CollapsingToolbarLayout[] toolbars = new CollapsingToolbarLayout[TOOLBAR_COUNT];
+        final long start = System.nanoTime();
+        for (int i = 0; i < TOOLBAR_COUNT; i++) {
+            toolbars[i] = (CollapsingToolbarLayout) inflater.inflate(
+                    R.layout.test_collapsing_toolbar, mContainer, false);
+        }
+        Log.i(TAG, "Inflating " + TOOLBAR_COUNT + " toolbars (" + name + "): "
+                + (System.nanoTime() - start) / 1000 + " us");
+        return toolbars;
+    }
+
+    private void layOut(CollapsingToolbarLayout[] toolbars) {
+        for (CollapsingToolbarLayout toolbar : toolbars) {
+            mContainer.addView(toolbar);
+            toolbar.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            toolbar.layout(0, 0, WIDTH, HEIGHT);
+        }
+    }
+
+    private static void configureWithSetters(CollapsingToolbarLayout toolbar) {
+        toolbar.setTitle("Another title which is long enough to need more than one line");
+        toolbar.setExpandedTitleGravity(GravityCompat.START | Gravity.CENTER_VERTICAL);
+        toolbar.setCollapsedTitleGravity(Gravity.CENTER);
+        toolbar.setExpandedTitleTextAppearance(EXPANDED_TEXT_APPEARANCE);
+        toolbar.setCollapsedTitleTextAppearance(COLLAPSED_TEXT_APPEARANCE);
+        toolbar.setExpandedTitleTextColor(ColorStateList.valueOf(Color.WHITE));
+        toolbar.setCollapsedTitleTextColor(ColorStateList.valueOf(Color.BLACK));
+        toolbar.setExpandedTitleTypeface(Typeface.SERIF);
+        toolbar.setCollapsedTitleTypeface(Typeface.SERIF);
+        toolbar.setMaxLines(2);
+        toolbar.setLineSpacingExtra(4);
+        toolbar.setLineSpacingMultiplier(1.1f);
+    }
+
+    private static void configureWithEditor(CollapsingToolbarLayout toolbar) {
+        toolbar.edit()
+                .setTitle("Another title which is long enough to need more than one line")
+                .setExpandedTitleGravity(GravityCompat.START | Gravity.CENTER_VERTICAL)
+                .setCollapsedTitleGravity(Gravity.CENTER)
+                .setExpandedTitleTextAppearance(EXPANDED_TEXT_APPEARANCE)
+                .setCollapsedTitleTextAppearance(COLLAPSED_TEXT_APPEARANCE)
+                .setExpandedTitleTextColor(ColorStateList.valueOf(Color.WHITE))
+                .setCollapsedTitleTextColor(ColorStateList.valueOf(Color.BLACK))
+                .setExpandedTitleTypeface(Typeface.SERIF)
+                .setCollapsedTitleTypeface(Typeface.SERIF)
+                .setMaxLines(2)
+                .setLineSpacingExtra(4)
+                .setLineSpacingMultiplier(1.1f)
+                .apply();
+    }
+
+    /**
+     * Returns the number of times the titles of {@code toolbars} have been laid out, repositioned
+     * or restyled.
+     */
+    private static int countPasses(CollapsingToolbarLayout[] toolbars) {
+        int passes = 0;
+        for (CollapsingToolbarLayout toolbar : toolbars) {
+            final TitleStats stats = toolbar.getTitleStats();
+            passes += stats.getLayoutPassCount() + stats.getOffsetPassCount()
+                    + stats.getStylePassCount();
+        }
+        return passes;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_RECORDED} draws the title into its
+ * layers once, and only moves them while collapsing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleLayerTest {
+
+    private static final int FRAMES_PER_COLLAPSE = 60;
+
+    @After
+    public void clearCache() {
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    @UiThreadTest
+    public void recordsOncePerTitle() {
+        final FrameLayout view = new FrameLayout(TitleTestUtils.getContext());
+        view.layout(0, 0, TitleTestUtils.WIDTH, TitleTestUtils.HEIGHT);
+        final CollapsingTextHelper helper =
+                TitleTestUtils.createHelper(view, TitleTestUtils.createTitle(60));
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_RECORDED);
+        final TitleStats stats = helper.getStats();
+        stats.reset();
+
+        final Canvas canvas = new Canvas(TitleTestUtils.createBitmap());
+        int unscaledFrames = 0;
+        for (int frame = 0; frame <= FRAMES_PER_COLLAPSE; frame++) {
+            final float fraction = (float) frame / FRAMES_PER_COLLAPSE;
+            helper.setExpansionFraction(fraction);
+            helper.draw(canvas);
+            if (frame == 0 || frame == FRAMES_PER_COLLAPSE) {
+                unscaledFrames++;
+            }
+        }
+        assertEquals(1, stats.getRecordCount());
+        // Only the fully expanded and collapsed frames are drawn as text
+        assertEquals(3 * unscaledFrames, stats.getTextDrawCount());
+
+        helper.setText(TitleTestUtils.createTitle(40));
+        helper.setExpansionFraction(0.5f);
+        assertEquals(2, stats.getRecordCount());
+
+        // Releasing the caches removes the layers, they are added again when needed
+        helper.releaseCaches(false);
+        helper.setExpansionFraction(0.4f);
+        assertEquals(3, stats.getRecordCount());
+    }
+
+    @Test
+    @UiThreadTest
+    public void textureFallbackWithoutViewGroup() {
+        final CollapsingTextHelper helper =
+                TitleTestUtils.createHelper(TitleTestUtils.createTitle(60));
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_RECORDED);
+        final TitleStats stats = helper.getStats();
+        stats.reset();
+
+        final Bitmap bitmap = TitleTestUtils.createBitmap();
+        TitleTestUtils.drawFrame(helper, 0.5f, bitmap);
+        assertEquals(0, stats.getRecordCount());
+        assertEquals(1, stats.getTextureAtlasRebuildCount());
+    }
+}
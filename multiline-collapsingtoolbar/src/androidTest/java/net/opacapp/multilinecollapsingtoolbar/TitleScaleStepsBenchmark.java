@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Counts the distinct glyph sizes drawn during a collapse, with and without
+ * {@link CollapsingToolbarLayout#setTitleScaleSteps(int)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleScaleStepsBenchmark {
+
+    private static final String TAG = "TitleScaleSteps";
+
+    private static final int FRAMES_PER_COLLAPSE = 240;
+    private static final int SCALE_STEPS = 8;
+
+    @Test
+    public void distinctGlyphSizesPerCollapse() {
+        final int continuous = collapse(0);
+        final int stepped = collapse(SCALE_STEPS);
+        Log.i(TAG, "Distinct glyph sizes per collapse: " + continuous + " continuous, "
+                + stepped + " with " + SCALE_STEPS + " steps per octave");
+
+        // Every step between both sizes, the collapsed size and a step of hysteresis at each end
+        final double octaves = Math.log(TitleTestUtils.EXPANDED_TEXT_SIZE
+                / TitleTestUtils.COLLAPSED_TEXT_SIZE) / Math.log(2);
+        assertTrue("Too many glyph sizes: " + stepped,
+                stepped <= Math.ceil(octaves * SCALE_STEPS) + 3);
+        assertTrue("Steps don't reduce glyph sizes: " + stepped + " >= " + continuous,
+                stepped < continuous);
+    }
+
+    /**
+     * Collapses and expands the title again, returning the number of distinct glyph sizes.
+     */
+    private static int collapse(int scaleSteps) {
+        final CollapsingTextHelper helper =
+                TitleTestUtils.createHelper(TitleTestUtils.createTitle(60));
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setScaleSteps(scaleSteps);
+        final TitleStats stats = helper.getStats();
+        stats.reset();
+        stats.setGlyphSizeTrackingEnabled(true);
+
+        final Bitmap bitmap = TitleTestUtils.createBitmap();
+        final Canvas canvas = new Canvas(bitmap);
+        final long start = System.nanoTime();
+        for (int frame = 0; frame <= 2 * FRAMES_PER_COLLAPSE; frame++) {
+            final int position = frame <= FRAMES_PER_COLLAPSE
+                    ? frame : 2 * FRAMES_PER_COLLAPSE - frame;
+            helper.setExpansionFraction((float) position / FRAMES_PER_COLLAPSE);
+            helper.draw(canvas);
+        }
+        final long nanos = System.nanoTime() - start;
+        Log.i(TAG, "Scale steps " + scaleSteps + ": "
+                + nanos / (2 * FRAMES_PER_COLLAPSE + 1) / 1000 + " us per frame");
+        return stats.getDistinctGlyphSizeCount();
+    }
+}
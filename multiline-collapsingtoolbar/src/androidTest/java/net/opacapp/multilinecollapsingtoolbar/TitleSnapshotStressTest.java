@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.view.GravityCompat;
+import android.text.TextPaint;
+import android.view.Gravity;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes snapshots on several background threads while the main thread keeps changing,
+ * drawing and asynchronously retitling a title sharing the same cached layouts, the way
+ * {@link CollapsingTextHelper#setTextAsync(CharSequence)} and
+ * {@link CollapsingTextHelper#prefetchText(CharSequence)} do.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleSnapshotStressTest {
+
+    private static final int WORKER_COUNT = 4;
+    private static final long DURATION_MILLIS = 5000;
+
+    /** Small enough to keep evicting and rebuilding the layouts shared by all threads */
+    private static final int CACHE_SIZE = 8 * 1024;
+
+    private static final String[] TITLES = {
+            TitleTestUtils.createTitle(20),
+            TitleTestUtils.createTitle(60),
+            TitleTestUtils.createTitle(150),
+            TitleTestUtils.createTitle(400),
+            "\u05db\u05d5\u05ea\u05e8\u05ea \u05d0\u05e8\u05d5\u05db\u05d4 \u05de\u05d0\u05d5\u05d3"
+                    + " \u05e9\u05e0\u05de\u05e9\u05db\u05ea \u05e2\u05dc \u05db\u05de\u05d4"
+                    + " \u05e9\u05d5\u05e8\u05d5\u05ea",
+    };
+    private static final float[] TEXT_SIZES = {
+            TitleTestUtils.COLLAPSED_TEXT_SIZE, 72, TitleTestUtils.EXPANDED_TEXT_SIZE
+    };
+    private static final int[] EXPANDED_INSETS = {48, 96};
+    private static final int[] GRAVITIES = {
+            GravityCompat.START | Gravity.BOTTOM, Gravity.CENTER, GravityCompat.END | Gravity.TOP
+    };
+    private static final int MAX_MAX_LINES = 4;
+
+    @Rule
+    public final ActivityTestRule<TitleTestActivity> mActivityRule =
+            new ActivityTestRule<>(TitleTestActivity.class);
+
+    private int mCacheSize;
+
+    @Before
+    public void shrinkCache() {
+        mCacheSize = TitleLayoutCache.getMaxSize();
+        TitleLayoutCache.setMaxSize(CACHE_SIZE);
+    }
+
+    @After
+    public void restoreCache() {
+        TitleLayoutCache.setMaxSize(mCacheSize);
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    public void concurrentSnapshots() throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long deadline = System.currentTimeMillis() + DURATION_MILLIS;
+
+        final Thread[] workers = new Thread[WORKER_COUNT];
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            final Random random = new Random(i);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+                    try {
+                        while (System.currentTimeMillis() < deadline && failure.get() == null) {
+                            final TitleSnapshot.Spec spec = createSpec(random, paint);
+                            assertSnapshot(TitleSnapshot.create(spec));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "TitleSnapshotWorker" + i);
+            workers[i].start();
+        }
+
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final CollapsingTextHelper[] helper = new CollapsingTextHelper[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final View view = new View(mActivityRule.getActivity());
+                mActivityRule.getActivity().setContentView(view);
+                view.layout(0, 0, TitleTestUtils.WIDTH, TitleTestUtils.HEIGHT);
+                helper[0] = TitleTestUtils.createHelper(view, TITLES[0]);
+            }
+        });
+        final Random random = new Random(WORKER_COUNT);
+        final Canvas canvas = new Canvas(TitleTestUtils.createBitmap());
+        final Runnable frame = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    changeHelper(helper[0], random);
+                    for (int i = 0; i <= 10; i++) {
+                        helper[0].setExpansionFraction(i / 10f);
+                        helper[0].draw(canvas);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        };
+        while (System.currentTimeMillis() < deadline && failure.get() == null) {
+            // Separate runs, so that the published snapshots are applied in between
+            instrumentation.runOnMainSync(frame);
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        instrumentation.waitForIdleSync();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static void changeHelper(CollapsingTextHelper helper, Random random) {
+        final int inset = pick(random, EXPANDED_INSETS);
+        helper.beginBatch();
+        helper.setExpandedTextSize(pick(random, TEXT_SIZES));
+        helper.setExpandedTextGravity(pick(random, GRAVITIES));
+        helper.setMaxLines(1 + random.nextInt(MAX_MAX_LINES));
+        helper.setExpandedBounds(inset, TitleTestUtils.COLLAPSED_HEIGHT,
+                TitleTestUtils.WIDTH - inset, TitleTestUtils.HEIGHT - inset);
+        helper.endBatch();
+        if (random.nextBoolean()) {
+            helper.setTextAsync(TITLES[random.nextInt(TITLES.length)]);
+        } else {
+            helper.prefetchText(TITLES[random.nextInt(TITLES.length)]);
+        }
+    }
+
+    /**
+     * Returns a spec like the ones of {@link #changeHelper}, so that both share cached layouts.
+     */
+    private static TitleSnapshot.Spec createSpec(Random random, TextPaint paint) {
+        final int inset = pick(random, EXPANDED_INSETS);
+        return new TitleSnapshot.Spec(TITLES[random.nextInt(TITLES.length)], paint,
+                new Rect(216, 0, TitleTestUtils.WIDTH - 48, TitleTestUtils.COLLAPSED_HEIGHT),
+                new Rect(inset, TitleTestUtils.COLLAPSED_HEIGHT, TitleTestUtils.WIDTH - inset,
+                        TitleTestUtils.HEIGHT - inset),
+                TitleTestUtils.COLLAPSED_TEXT_SIZE, pick(random, TEXT_SIZES), Typeface.DEFAULT,
+                Typeface.DEFAULT, GravityCompat.START | Gravity.CENTER_VERTICAL,
+                pick(random, GRAVITIES), 1 + random.nextInt(MAX_MAX_LINES), 1f, 0f,
+                random.nextInt(4) == 0);
+    }
+
+    private static void assertSnapshot(TitleSnapshot snapshot) {
+        final TitleSnapshot.Spec spec = snapshot.mSpec;
+        assertEquals(1, snapshot.mCollapsedLayout.getLineCount());
+        final int lineCount = snapshot.mExpandedLayout.getLineCount();
+        assertTrue("Too many lines: " + lineCount, lineCount <= spec.mMaxLines);
+        assertEquals(snapshot.mExpandedLayout.getLineEnd(0)
+                        - snapshot.mExpandedLayout.getLineStart(0),
+                snapshot.mExpandedFirstLineChars.length);
+        final float width = snapshot.mExpandedFirstLineWidth;
+        assertTrue("Bad first line width: " + width, width > 0
+                && width <= snapshot.mExpandedLayout.getWidth() + 1);
+        final float left = snapshot.mExpandedFirstLineDrawX;
+        assertTrue("Bad first line left: " + left, left >= -1
+                && left + width <= snapshot.mExpandedLayout.getWidth() + 1);
+    }
+
+    private static float pick(Random random, float[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int pick(Random random, int[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
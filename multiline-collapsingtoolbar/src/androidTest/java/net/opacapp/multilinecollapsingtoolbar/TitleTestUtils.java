@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.v4.view.GravityCompat;
+import android.view.Gravity;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Creates {@link CollapsingTextHelper} instances positioned like the title of a typical
+ * {@link CollapsingToolbarLayout}, without inflating one, and draws their frames into bitmaps.
+ */
+final class TitleTestUtils {
+
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 600;
+    static final int COLLAPSED_HEIGHT = 168;
+    static final float EXPANDED_TEXT_SIZE = 96;
+    static final float COLLAPSED_TEXT_SIZE = 60;
+
+    private static final String[] WORDS = {
+            "collapsing", "toolbar", "with", "a", "rather", "long", "title", "that", "wraps",
+            "over", "several", "lines", "of", "text"
+    };
+
+    private TitleTestUtils() {
+    }
+
+    static Context getContext() {
+        return InstrumentationRegistry.getTargetContext();
+    }
+
+    /**
+     * Returns a helper showing {@code title}, laid out and fully expanded.
+     */
+    static CollapsingTextHelper createHelper(CharSequence title) {
+        final View view = new View(getContext());
+        view.layout(0, 0, WIDTH, HEIGHT);
+        return createHelper(view, title);
+    }
+
+    /**
+     * Returns a helper drawing {@code title} into {@code view}, which has to be laid out
+     * already, fully expanded.
+     */
+    static CollapsingTextHelper createHelper(View view, CharSequence title) {
+        final CollapsingTextHelper helper = new CollapsingTextHelper(view);
+        helper.beginBatch();
+        helper.setTextSizeInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
+        helper.setExpandedTextSize(EXPANDED_TEXT_SIZE);
+        helper.setCollapsedTextSize(COLLAPSED_TEXT_SIZE);
+        helper.setExpandedTextColor(ColorStateList.valueOf(Color.BLACK));
+        helper.setCollapsedTextColor(ColorStateList.valueOf(Color.BLACK));
+        helper.setExpandedTextGravity(GravityCompat.START | Gravity.BOTTOM);
+        helper.setCollapsedTextGravity(GravityCompat.START | Gravity.CENTER_VERTICAL);
+        helper.setExpandedBounds(48, COLLAPSED_HEIGHT, WIDTH - 48, HEIGHT - 48);
+        helper.setCollapsedBounds(216, 0, WIDTH - 48, COLLAPSED_HEIGHT);
+        helper.setText(title);
+        helper.endBatch();
+        return helper;
+    }
+
+    static Bitmap createBitmap() {
+        return Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draws the frame of {@code helper} at {@code fraction} into {@code bitmap}, on a white
+     * background.
+     */
+    static void drawFrame(CollapsingTextHelper helper, float fraction, Bitmap bitmap) {
+        bitmap.eraseColor(Color.WHITE);
+        helper.setExpansionFraction(fraction);
+        helper.draw(new Canvas(bitmap));
+    }
+
+    /**
+     * Returns a title of exactly {@code length} characters, made of words separated by spaces.
+     */
+    static String createTitle(int length) {
+        final StringBuilder builder = new StringBuilder(length + 16);
+        for (int i = 0; builder.length() < length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[i % WORDS.length]);
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+
+    /**
+     * Returns the fraction of pixels whose color channels differ by more than
+     * {@code tolerance} between {@code expected} and {@code actual}.
+     */
+    static float getDifferingPixelRatio(Bitmap expected, Bitmap actual, int tolerance) {
+        final int width = expected.getWidth();
+        final int height = expected.getHeight();
+        final int[] expectedPixels = new int[width * height];
+        final int[] actualPixels = new int[width * height];
+        expected.getPixels(expectedPixels, 0, width, 0, 0, width, height);
+        actual.getPixels(actualPixels, 0, width, 0, 0, width, height);
+        int differing = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            final int a = expectedPixels[i];
+            final int b = actualPixels[i];
+            if (Math.abs(Color.alpha(a) - Color.alpha(b)) > tolerance
+                    || Math.abs(Color.red(a) - Color.red(b)) > tolerance
+                    || Math.abs(Color.green(a) - Color.green(b)) > tolerance
+                    || Math.abs(Color.blue(a) - Color.blue(b)) > tolerance) {
+                differing++;
+            }
+        }
+        return (float) differing / expectedPixels.length;
+    }
+
+    /**
+     * Returns the number of pixels of {@code bitmap} which are not white.
+     */
+    static int countInkedPixels(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        int count = 0;
+        for (int pixel : pixels) {
+            if (pixel != Color.WHITE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
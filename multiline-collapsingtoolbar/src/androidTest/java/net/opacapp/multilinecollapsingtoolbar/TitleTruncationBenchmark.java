@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Paint;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares {@link TitleTruncator} with truncating a title the way it was done before: laying out
+ * the whole text, ellipsizing its last visible line and laying out the result again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TitleTruncationBenchmark {
+
+    private static final String TAG = "TitleTruncation";
+
+    private static final int MAX_LINES = 3;
+    private static final int WARM_UP_RUNS = 20;
+    private static final int RUNS = 100;
+
+    @Test
+    public void threeLineTitles() {
+        final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(TitleTestUtils.EXPANDED_TEXT_SIZE);
+        final int width = TitleTestUtils.WIDTH - 2 * 48;
+
+        for (int length : new int[] {200, 500, 2000}) {
+            final String title = TitleTestUtils.createTitle(length);
+            final long[] twoPassNanos = new long[RUNS];
+            final long[] singlePassNanos = new long[RUNS];
+            for (int run = -WARM_UP_RUNS; run < RUNS; run++) {
+                final long start = System.nanoTime();
+                final CharSequence expected = truncateInTwoPasses(title, paint, width);
+                final long middle = System.nanoTime();
+                final int layoutCount = TitleTruncator.getLayoutCount();
+                final CharSequence visibleTitle =
+                        TitleTruncator.clip(title, paint, width, MAX_LINES);
+                final TitleLayoutCache.Entry entry = TitleTruncator.layout(visibleTitle,
+                        visibleTitle.length() < title.length(), paint, new TextPaint(paint),
+                        width, MAX_LINES, Layout.Alignment.ALIGN_NORMAL, 1f, 0f);
+                final long end = System.nanoTime();
+                if (run >= 0) {
+                    twoPassNanos[run] = middle - start;
+                    singlePassNanos[run] = end - middle;
+                }
+
+                assertEquals("Layouts built", 1, TitleTruncator.getLayoutCount() - layoutCount);
+                assertEquals(MAX_LINES, entry.mLayout.getLineCount());
+                assertTrue(TextUtils.indexOf(expected, '\u2026') >= 0);
+                assertTrue(TextUtils.indexOf(entry.mText, '\u2026') >= 0);
+            }
+
+            final long twoPass = TitleTestUtils.median(twoPassNanos);
+            final long singlePass = TitleTestUtils.median(singlePassNanos);
+            Log.i(TAG, length + " characters: " + twoPass / 1000 + " us in two passes, "
+                    + singlePass / 1000 + " us in one");
+            assertTrue(length + " characters: " + singlePass + " ns >= " + twoPass + " ns",
+                    singlePass < twoPass);
+        }
+    }
+
+    /**
+     * Truncates {@code text} to {@link #MAX_LINES} lines using two full layouts.
+     */
+    private static CharSequence truncateInTwoPasses(CharSequence text, TextPaint paint,
+            int width) {
+        final StaticLayout layout = new StaticLayout(text, paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+        CharSequence truncatedText = text;
+        if (layout.getLineCount() > MAX_LINES) {
+            final int lastLine = MAX_LINES - 1;
+            final CharSequence textBefore = text.subSequence(0, layout.getLineEnd(lastLine - 1));
+            CharSequence lineText = text.subSequence(layout.getLineStart(lastLine),
+                    layout.getLineEnd(lastLine));
+            // Trailing whitespace is dropped in front of the ellipsis
+            int lineEnd = lineText.length();
+            while (lineEnd > 0 && lineText.charAt(lineEnd - 1) == ' ') {
+                lineEnd--;
+            }
+            lineText = TextUtils.concat(lineText.subSequence(0, lineEnd), "\u2026");
+            truncatedText = TextUtils.concat(textBefore, TextUtils.ellipsize(lineText, paint,
+                    width, TextUtils.TruncateAt.END));
+        }
+        new StaticLayout(truncatedText, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f,
+                false);
+        return truncatedText;
+    }
+}
@@ -17,7 +17,6 @@
 package net.opacapp.multilinecollapsingtoolbar;
 
 import android.content.res.ColorStateList;
-import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -25,21 +24,31 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.ColorInt;
+import android.support.annotation.RequiresApi;
 import android.support.v4.math.MathUtils;
-import android.support.v4.text.TextDirectionHeuristicsCompat;
-import android.support.v4.view.GravityCompat;
+import android.support.v4.util.LruCache;
 import android.support.v4.view.ViewCompat;
-import android.text.Layout;
+import android.text.Spanned;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
+import android.text.style.CharacterStyle;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.animation.Interpolator;
 
 // BEGIN MODIFICATION: Added imports
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 // END MODIFICATION
 
 final class CollapsingTextHelper {
@@ -47,6 +56,46 @@ final class CollapsingTextHelper {
     // Pre-JB-MR2 doesn't support HW accelerated canvas scaled text so we will workaround it
     // by using our own texture
     private static final boolean USE_SCALING_TEXTURE = Build.VERSION.SDK_INT < 18;
+    // MODIFICATION: the title layers are added to the view overlay, which requires JB-MR2
+    private static final boolean CAN_USE_LAYERS = Build.VERSION.SDK_INT >= 18;
+
+    // BEGIN MODIFICATION: render mode selection, see setRenderMode(int)
+    /** Textures are rendered at scales of a power of two with this many steps per octave */
+    private static final int TEXTURE_SCALE_STEPS = 2;
+    /** Maximum factor between the drawn scale and the one the texture has been rendered at */
+    private static final float MAX_TEXTURE_SCALE_DRIFT = 1.25f;
+    /**
+     * How far, in steps, the scale has to move past the middle between two steps before a
+     * quantized scale switches to the next one, see {@link #getQuantizedScale(float)}
+     */
+    private static final float SCALE_STEP_HYSTERESIS = 0.2f;
+    /** Number of frames it takes to crossfade from one quantized scale to the next */
+    private static final int SCALE_STEP_CROSSFADE_FRAMES = 4;
+    /** The textures of each level of the atlas, see {@link #mTextureRects} */
+    private static final int TEXTURE_EXPANDED = 0;
+    private static final int TEXTURE_COLLAPSED = 1;
+    private static final int TEXTURE_CROSS_SECTION = 2;
+    private static final int TEXTURE_COUNT = 3;
+    // END MODIFICATION
+
+    // MODIFICATION: executor used to lay out titles ahead of time
+    private static final Executor ASYNC_EXECUTOR = AsyncTask.THREAD_POOL_EXECUTOR;
+    // MODIFICATION: number of drawable state sets whose resolved text colors are kept
+    private static final int STATE_COLOR_CACHE_SIZE = 4;
+    // MODIFICATION: number of prewarmed titles kept until they are set
+    private static final int MAX_PREWARMED_TITLES = 16;
+    // MODIFICATION: source of the ids identifying instances in TitleLayoutCache.LayoutPaint
+    private static final AtomicInteger sNextPaintOwnerId = new AtomicInteger();
+
+    // BEGIN MODIFICATION: stages which can be invalidated separately, see invalidate(int)
+    private static final int DIRTY_COLOR = 1;
+    private static final int DIRTY_SHADOW = 1 << 1;
+    private static final int DIRTY_OFFSETS = 1 << 2;
+    private static final int DIRTY_LAYOUT = 1 << 3;
+    private static final int DIRTY_TEXTURE = 1 << 4;
+    private static final int DIRTY_ALL =
+            DIRTY_COLOR | DIRTY_SHADOW | DIRTY_OFFSETS | DIRTY_LAYOUT | DIRTY_TEXTURE;
+    // END MODIFICATION
 
     private static final boolean DEBUG_DRAW = false;
     private static final Paint DEBUG_DRAW_PAINT;
@@ -74,22 +123,19 @@ final class CollapsingTextHelper {
     private ColorStateList mExpandedTextColor;
     private ColorStateList mCollapsedTextColor;
 
-    private float mExpandedDrawY;
-    private float mCollapsedDrawY;
-    private float mExpandedDrawX;
-    private float mCollapsedDrawX;
+    // MODIFICATION: moved mExpandedDrawX/Y and mCollapsedDrawX/Y into TitleSnapshot
     private float mCurrentDrawX;
     private float mCurrentDrawY;
     private Typeface mCollapsedTypeface;
     private Typeface mExpandedTypeface;
-    private Typeface mCurrentTypeface;
+    // MODIFICATION: removed mCurrentTypeface, the typeface follows mDrawCollapsedText
 
     private CharSequence mText;
-    private CharSequence mTextToDraw;
-    private boolean mIsRtl;
+    // MODIFICATION: moved mTextToDraw and mIsRtl into TitleSnapshot
 
     private boolean mUseTexture;
-    private Bitmap mExpandedTitleTexture;
+    // MODIFICATION: a single atlas holding the expanded, collapsed and cross-section textures
+    private Bitmap mTitleTexture;
     private Paint mTexturePaint;
     // MODIFICATION: Removed now unused fields mTextureAscent and mTextureDescent
 
@@ -98,7 +144,7 @@ final class CollapsingTextHelper {
 
     private int[] mState;
 
-    private boolean mBoundsChanged;
+    // MODIFICATION: removed mBoundsChanged, every recalculation creates a new TitleSnapshot
 
     private final TextPaint mTextPaint;
 
@@ -112,70 +158,149 @@ final class CollapsingTextHelper {
     private int mExpandedShadowColor;
 
     // BEGIN MODIFICATION: Added fields
-    private CharSequence mTextToDrawCollapsed;
-    private Bitmap mCollapsedTitleTexture;
-    private Bitmap mCrossSectionTitleTexture;
-    private StaticLayout mTextLayout;
+    /** Texture {@code i} of level {@code l} is at {@code l * TEXTURE_COUNT + i} */
+    private Rect[] mTextureRects = new Rect[0];
+    /** The scales the levels of {@link #mTitleTexture} have been rendered at */
+    private float[] mTextureScales = new float[0];
+    private int mTextureLevelCount;
+    /** The level of {@link #mTitleTexture} drawn in the current frame */
+    private int mTextureLevel;
+    private int mMaxTextureLevels = 1;
+    private int mScaleSteps;
+    /** Whether the scaled title is drawn by {@link #mTitleLayers} */
+    private boolean mUseLayers;
+    /** The title layers, indexed like the textures of {@link #mTextureRects} */
+    private TitleLayerView[] mTitleLayers;
+    /** Whether {@link #mTitleLayers} hold the current title */
+    private boolean mTitleLayersValid;
+    private boolean mTitleLayersVisible = true;
+    /** Whether the title has been drawn by {@link #mTitleLayers} in the current frame */
+    private boolean mTitleLayersShown;
+    private float mQuantizedScale = 1f;
+    /** The quantized scale before the last switch, faded out while the current one fades in */
+    private float mPreviousQuantizedScale = 1f;
+    /** Number of frames drawn since the last switch of {@link #mQuantizedScale} */
+    private int mScaleCrossfadeFrame = SCALE_STEP_CROSSFADE_FRAMES;
+    /** Whether {@link #mExpandedStateColor} and {@link #mCollapsedStateColor} are up to date */
+    private boolean mStateColorsResolved;
+    @ColorInt
+    private int mExpandedStateColor;
+    @ColorInt
+    private int mCollapsedStateColor;
+    /** Recently seen state sets, with their colors at the same index of mStateColorCache */
+    private final int[][] mStateColorCacheKeys = new int[STATE_COLOR_CACHE_SIZE][];
+    private final int[] mStateColorCache = new int[STATE_COLOR_CACHE_SIZE * 2];
+    private int mNextStateColorCacheIndex;
+    private final RectF mTextureDestination = new RectF();
     private float mCollapsedTextBlend;
     private float mExpandedTextBlend;
-    private float mExpandedFirstLineDrawX;
+    /**
+     * The text geometry, replaced as a whole whenever it is recalculated. Only the reference is
+     * shared between threads, the snapshot itself is immutable.
+     */
+    private volatile TitleSnapshot mSnapshot;
+    /** Whether the collapsed text of {@link #mSnapshot} is drawn, rather than the expanded one */
+    private boolean mDrawCollapsedText;
     private int maxLines = 3;
     private float lineSpacingExtra = 0;
     private float lineSpacingMultiplier = 1;
+    private CharSequence mPendingText;
+    private int mTextGeneration;
+    private final ArrayDeque<CharSequence> mPrewarmQueue = new ArrayDeque<>();
+    private final LruCache<CharSequence, TitleSnapshot> mPrewarmedSnapshots =
+            new LruCache<>(MAX_PREWARMED_TITLES);
+    private MessageQueue.IdleHandler mPrewarmIdleHandler;
+    private final TitleStats mStats = new TitleStats();
+    private int mDirtyFlags = DIRTY_ALL;
+    private int mBatchDepth;
+    private int mKeyframeSteps;
+    private TitleKeyframes mKeyframes;
+    private final float[] mFrame = new float[TitleKeyframes.FLOAT_COUNT];
+    private final Rect mInvalidatedBounds = new Rect();
+    /** Identifies us as the last one to sync the paint of a shared layout */
+    private final int mPaintOwnerId = sNextPaintOwnerId.incrementAndGet();
+    /** Incremented whenever {@link #mTextPaint} is changed */
+    private int mPaintVersion;
+    private int mPaintColor;
+    private float mPaintTextSize;
+    private float mPaintShadowRadius, mPaintShadowDx, mPaintShadowDy;
+    private int mPaintShadowColor;
+    private boolean mSinglePassCrossfade;
+    private final int[] mFrameColors = new int[TitleKeyframes.COLOR_COUNT];
+    private boolean mAlphaTexturesEnabled;
+    private int mRenderMode = USE_SCALING_TEXTURE
+            ? CollapsingToolbarLayout.TITLE_RENDER_MODE_TEXTURE
+            : CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT;
+    /** Watches the frame pacing for the AUTO render mode, created when first needed */
+    private TitleFrameMonitor mFrameMonitor;
+    /** Whether the current textures only hold the glyph coverage, see {@link #mUseTexture} */
+    private boolean mAlphaTextures;
+    /** Whether {@link #releaseCaches(boolean)} ran since the title was last drawn */
+    private boolean mCachesReleased;
     // END MODIFICATION
 
     public CollapsingTextHelper(View view) {
         mView = view;
 
         mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+        // MODIFICATION: initial state for paint state diffing, a new paint has no shadow
+        mPaintColor = mTextPaint.getColor();
+        mPaintTextSize = mTextPaint.getTextSize();
 
         mCollapsedBounds = new Rect();
         mExpandedBounds = new Rect();
         mCurrentBounds = new RectF();
+        // MODIFICATION: release textures and caches under memory pressure
+        TitleCachePolicy.register(view.getContext(), this);
     }
 
     void setTextSizeInterpolator(Interpolator interpolator) {
         mTextSizeInterpolator = interpolator;
-        recalculate();
+        invalidate(DIRTY_OFFSETS);
     }
 
     void setPositionInterpolator(Interpolator interpolator) {
         mPositionInterpolator = interpolator;
-        recalculate();
+        invalidate(DIRTY_OFFSETS);
     }
 
     void setExpandedTextSize(float textSize) {
         if (mExpandedTextSize != textSize) {
             mExpandedTextSize = textSize;
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
     void setCollapsedTextSize(float textSize) {
         if (mCollapsedTextSize != textSize) {
             mCollapsedTextSize = textSize;
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
     void setCollapsedTextColor(ColorStateList textColor) {
         if (mCollapsedTextColor != textColor) {
             mCollapsedTextColor = textColor;
-            recalculate();
+            // MODIFICATION: the cached colors are outdated
+            clearStateColors();
+            invalidate(DIRTY_COLOR);
         }
     }
 
     void setExpandedTextColor(ColorStateList textColor) {
         if (mExpandedTextColor != textColor) {
             mExpandedTextColor = textColor;
-            recalculate();
+            // MODIFICATION: the cached colors are outdated
+            clearStateColors();
+            invalidate(DIRTY_COLOR);
         }
     }
 
     void setExpandedBounds(int left, int top, int right, int bottom) {
         if (!rectEquals(mExpandedBounds, left, top, right, bottom)) {
             mExpandedBounds.set(left, top, right, bottom);
-            mBoundsChanged = true;
+            // MODIFICATION: applied by the next recalculate()
+            mDirtyFlags |= DIRTY_OFFSETS;
             onBoundsChanged();
         }
     }
@@ -183,7 +308,8 @@ final class CollapsingTextHelper {
     void setCollapsedBounds(int left, int top, int right, int bottom) {
         if (!rectEquals(mCollapsedBounds, left, top, right, bottom)) {
             mCollapsedBounds.set(left, top, right, bottom);
-            mBoundsChanged = true;
+            // MODIFICATION: applied by the next recalculate()
+            mDirtyFlags |= DIRTY_OFFSETS;
             onBoundsChanged();
         }
     }
@@ -191,12 +317,21 @@ final class CollapsingTextHelper {
     void onBoundsChanged() {
         mDrawTitle = mCollapsedBounds.width() > 0 && mCollapsedBounds.height() > 0
                 && mExpandedBounds.width() > 0 && mExpandedBounds.height() > 0;
+        // BEGIN MODIFICATION: a pending title was laid out for the old bounds, don't wait for it.
+        // The new bounds are followed by a recalculation anyway.
+        if (mPendingText != null) {
+            final CharSequence text = mPendingText;
+            mTextGeneration++;
+            mPendingText = null;
+            updateText(text);
+        }
+        // END MODIFICATION
     }
 
     void setExpandedTextGravity(int gravity) {
         if (mExpandedTextGravity != gravity) {
             mExpandedTextGravity = gravity;
-            recalculate();
+            invalidate(DIRTY_OFFSETS);
         }
     }
 
@@ -207,7 +342,7 @@ final class CollapsingTextHelper {
     void setCollapsedTextGravity(int gravity) {
         if (mCollapsedTextGravity != gravity) {
             mCollapsedTextGravity = gravity;
-            recalculate();
+            invalidate(DIRTY_OFFSETS);
         }
     }
 
@@ -216,69 +351,58 @@ final class CollapsingTextHelper {
     }
 
     void setCollapsedTextAppearance(int resId) {
-        TypedArray a = mView.getContext().obtainStyledAttributes(resId,
-                android.support.v7.appcompat.R.styleable.TextAppearance);
-        if (a.hasValue(android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor)) {
-            mCollapsedTextColor = a.getColorStateList(
-                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor);
-        }
-        if (a.hasValue(android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize)) {
-            mCollapsedTextSize = a.getDimensionPixelSize(
-                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize,
-                    (int) mCollapsedTextSize);
-        }
-        mCollapsedShadowColor = a.getInt(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowColor, 0);
-        mCollapsedShadowDx = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDx, 0);
-        mCollapsedShadowDy = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDy, 0);
-        mCollapsedShadowRadius = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowRadius, 0);
-        a.recycle();
+        // BEGIN MODIFICATION: resolve the text appearance through TextAppearanceCache
+        final TextAppearanceCache.TextAppearance appearance =
+                TextAppearanceCache.obtain(mView.getContext(), resId);
+        if (appearance.mTextColor != null) {
+            mCollapsedTextColor = appearance.mTextColor;
+            clearStateColors();
+        }
+        if (appearance.mHasTextSize) {
+            mCollapsedTextSize = appearance.mTextSize;
+        }
+        mCollapsedShadowColor = appearance.mShadowColor;
+        mCollapsedShadowDx = appearance.mShadowDx;
+        mCollapsedShadowDy = appearance.mShadowDy;
+        mCollapsedShadowRadius = appearance.mShadowRadius;
 
         if (Build.VERSION.SDK_INT >= 16) {
-            mCollapsedTypeface = readFontFamilyTypeface(resId);
+            mCollapsedTypeface = appearance.mTypeface;
         }
+        // END MODIFICATION
 
-        recalculate();
+        invalidate(DIRTY_ALL);
     }
 
     void setExpandedTextAppearance(int resId) {
-        TypedArray a = mView.getContext().obtainStyledAttributes(resId,
-                android.support.v7.appcompat.R.styleable.TextAppearance);
-        if (a.hasValue(android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor)) {
-            mExpandedTextColor = a.getColorStateList(
-                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor);
-        }
-        if (a.hasValue(android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize)) {
-            mExpandedTextSize = a.getDimensionPixelSize(
-                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize,
-                    (int) mExpandedTextSize);
-        }
-        mExpandedShadowColor = a.getInt(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowColor, 0);
-        mExpandedShadowDx = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDx, 0);
-        mExpandedShadowDy = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDy, 0);
-        mExpandedShadowRadius = a.getFloat(
-                android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowRadius, 0);
-        a.recycle();
+        // BEGIN MODIFICATION: resolve the text appearance through TextAppearanceCache
+        final TextAppearanceCache.TextAppearance appearance =
+                TextAppearanceCache.obtain(mView.getContext(), resId);
+        if (appearance.mTextColor != null) {
+            mExpandedTextColor = appearance.mTextColor;
+            clearStateColors();
+        }
+        if (appearance.mHasTextSize) {
+            mExpandedTextSize = appearance.mTextSize;
+        }
+        mExpandedShadowColor = appearance.mShadowColor;
+        mExpandedShadowDx = appearance.mShadowDx;
+        mExpandedShadowDy = appearance.mShadowDy;
+        mExpandedShadowRadius = appearance.mShadowRadius;
 
         if (Build.VERSION.SDK_INT >= 16) {
-            mExpandedTypeface = readFontFamilyTypeface(resId);
+            mExpandedTypeface = appearance.mTypeface;
         }
+        // END MODIFICATION
 
-        recalculate();
+        invalidate(DIRTY_ALL);
     }
 
     // BEGIN MODIFICATION: getter and setter method for number of max lines
     void setMaxLines(int maxLines) {
         if (maxLines != this.maxLines) {
             this.maxLines = maxLines;
-            clearTexture();
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
@@ -291,8 +415,7 @@ final class CollapsingTextHelper {
     void setLineSpacingExtra(float lineSpacingExtra) {
         if (lineSpacingExtra != this.lineSpacingExtra) {
             this.lineSpacingExtra = lineSpacingExtra;
-            clearTexture();
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
@@ -303,8 +426,7 @@ final class CollapsingTextHelper {
     void setLineSpacingMultiplier(float lineSpacingMultiplier) {
         if (lineSpacingMultiplier != this.lineSpacingMultiplier) {
             this.lineSpacingMultiplier = lineSpacingMultiplier;
-            clearTexture();
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
@@ -313,37 +435,25 @@ final class CollapsingTextHelper {
     }
     // END MODIFICATION
 
-    private Typeface readFontFamilyTypeface(int resId) {
-        final TypedArray a = mView.getContext().obtainStyledAttributes(resId,
-                new int[]{android.R.attr.fontFamily});
-        try {
-            final String family = a.getString(0);
-            if (family != null) {
-                return Typeface.create(family, Typeface.NORMAL);
-            }
-        } finally {
-            a.recycle();
-        }
-        return null;
-    }
+    // MODIFICATION: moved readFontFamilyTypeface to TextAppearanceCache
 
     void setCollapsedTypeface(Typeface typeface) {
         if (areTypefacesDifferent(mCollapsedTypeface, typeface)) {
             mCollapsedTypeface = typeface;
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
     void setExpandedTypeface(Typeface typeface) {
         if (areTypefacesDifferent(mExpandedTypeface, typeface)) {
             mExpandedTypeface = typeface;
-            recalculate();
+            invalidate(DIRTY_LAYOUT);
         }
     }
 
     void setTypefaces(Typeface typeface) {
         mCollapsedTypeface = mExpandedTypeface = typeface;
-        recalculate();
+        invalidate(DIRTY_LAYOUT);
     }
 
     Typeface getCollapsedTypeface() {
@@ -371,12 +481,23 @@ final class CollapsingTextHelper {
     }
 
     final boolean setState(final int[] state) {
-        mState = state;
-
+        // BEGIN MODIFICATION: only the colors depend on the state, and only need to be updated
+        // if they actually change
         if (isStateful()) {
-            recalculate();
-            return true;
+            final int expandedColor = getCurrentExpandedTextColor();
+            final int collapsedColor = getCurrentCollapsedTextColor();
+            mState = state;
+            mStateColorsResolved = false;
+            if (getCurrentExpandedTextColor() != expandedColor
+                    || getCurrentCollapsedTextColor() != collapsedColor) {
+                invalidate(DIRTY_COLOR);
+                return true;
+            }
+            mStats.onStateChangeSkipped();
+            return false;
         }
+        mState = state;
+        // END MODIFICATION
 
         return false;
     }
@@ -404,173 +525,398 @@ final class CollapsingTextHelper {
     }
 
     private void calculateOffsets(final float fraction) {
-        interpolateBounds(fraction);
-        mCurrentDrawX = lerp(mExpandedDrawX, mCollapsedDrawX, fraction,
-                mPositionInterpolator);
-        mCurrentDrawY = lerp(mExpandedDrawY, mCollapsedDrawY, fraction,
-                mPositionInterpolator);
-
-        setInterpolatedTextSize(lerp(mExpandedTextSize, mCollapsedTextSize,
-                fraction, mTextSizeInterpolator));
-
-        // BEGIN MODIFICATION: set text blending
-        setCollapsedTextBlend(1 - lerp(0, 1, 1 - fraction, AnimationUtils
-                .FAST_OUT_SLOW_IN_INTERPOLATOR));
-        setExpandedTextBlend(lerp(1, 0, fraction, AnimationUtils
-                .FAST_OUT_SLOW_IN_INTERPOLATOR));
+        // BEGIN MODIFICATION: compute the frame from the current snapshot, either exactly or
+        // from the baked keyframes
+        final TitleSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            return;
+        }
+        if (mKeyframeSteps > 0) {
+            getKeyframes(snapshot).getFrame(fraction, mFrame, mFrameColors);
+        } else {
+            computeFrame(snapshot, fraction, mFrame, mFrameColors);
+        }
+        applyFrame(snapshot, mFrame, mFrameColors);
         // END MODIFICATION
+    }
+
+    // BEGIN MODIFICATION: per-frame parameters, see TitleKeyframes
+    /**
+     * Computes the draw parameters for {@code fraction}, without applying them.
+     */
+    private void computeFrame(TitleSnapshot snapshot, float fraction, float[] frame,
+            int[] colors) {
+        final Rect expandedBounds = snapshot.mSpec.mExpandedBounds;
+        final Rect collapsedBounds = snapshot.mSpec.mCollapsedBounds;
+        frame[TitleKeyframes.BOUNDS_LEFT] = lerp(expandedBounds.left, collapsedBounds.left,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.BOUNDS_TOP] = lerp(snapshot.mExpandedDrawY, snapshot.mCollapsedDrawY,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.BOUNDS_RIGHT] = lerp(expandedBounds.right, collapsedBounds.right,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.BOUNDS_BOTTOM] = lerp(expandedBounds.bottom, collapsedBounds.bottom,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.DRAW_X] = lerp(snapshot.mExpandedDrawX, snapshot.mCollapsedDrawX,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.DRAW_Y] = lerp(snapshot.mExpandedDrawY, snapshot.mCollapsedDrawY,
+                fraction, mPositionInterpolator);
+        frame[TitleKeyframes.TEXT_SIZE] = lerp(snapshot.mSpec.mExpandedTextSize,
+                snapshot.mSpec.mCollapsedTextSize, fraction, mTextSizeInterpolator);
+        frame[TitleKeyframes.COLLAPSED_BLEND] = 1 - lerp(0, 1, 1 - fraction,
+                AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+        frame[TitleKeyframes.EXPANDED_BLEND] = lerp(1, 0, fraction,
+                AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+        frame[TitleKeyframes.SHADOW_RADIUS] = lerp(mExpandedShadowRadius, mCollapsedShadowRadius,
+                fraction, null);
+        frame[TitleKeyframes.SHADOW_DX] = lerp(mExpandedShadowDx, mCollapsedShadowDx, fraction,
+                null);
+        frame[TitleKeyframes.SHADOW_DY] = lerp(mExpandedShadowDy, mCollapsedShadowDy, fraction,
+                null);
+        colors[TitleKeyframes.TEXT_COLOR] = getTextColor(fraction);
+        colors[TitleKeyframes.SHADOW_COLOR] = blendColors(mExpandedShadowColor,
+                mCollapsedShadowColor, fraction);
+    }
 
+    private void applyFrame(TitleSnapshot snapshot, float[] frame, int[] colors) {
+        // Read everything up front, creating textures calculates the offsets of another frame
+        final float collapsedBlend = frame[TitleKeyframes.COLLAPSED_BLEND];
+        final float expandedBlend = frame[TitleKeyframes.EXPANDED_BLEND];
+        final float shadowRadius = frame[TitleKeyframes.SHADOW_RADIUS];
+        final float shadowDx = frame[TitleKeyframes.SHADOW_DX];
+        final float shadowDy = frame[TitleKeyframes.SHADOW_DY];
+        final int textColor = colors[TitleKeyframes.TEXT_COLOR];
+        final int shadowColor = colors[TitleKeyframes.SHADOW_COLOR];
+        final float left = frame[TitleKeyframes.BOUNDS_LEFT];
+        final float top = frame[TitleKeyframes.BOUNDS_TOP];
+        final float right = frame[TitleKeyframes.BOUNDS_RIGHT];
+        final float bottom = frame[TitleKeyframes.BOUNDS_BOTTOM];
+        final float drawX = frame[TitleKeyframes.DRAW_X];
+        final float drawY = frame[TitleKeyframes.DRAW_Y];
+
+        setInterpolatedTextSize(snapshot, frame[TitleKeyframes.TEXT_SIZE]);
+        // Set after the text size, so that they aren't replaced by the ones of the textures
+        mCurrentBounds.set(left, top, right, bottom);
+        mCurrentDrawX = drawX;
+        mCurrentDrawY = drawY;
+
+        setCollapsedTextBlend(collapsedBlend);
+        setExpandedTextBlend(expandedBlend);
+        setPaintColor(textColor);
+        setPaintShadowLayer(shadowRadius, shadowDx, shadowDy, shadowColor);
+
+        // MODIFICATION: move the title layers instead of drawing the title again. The view is
+        // only invalidated when switching between both, to draw or erase the title.
+        final boolean layersShown = mTitleLayersShown;
+        updateTitleLayers(snapshot);
+        if (!layersShown || !mTitleLayersShown) {
+            invalidateTitle();
+        }
+    }
+
+    /**
+     * Invalidates the area covered by the title in the current frame and in the previously
+     * invalidated one, instead of the whole view. The dirty rect only saves work with software
+     * rendering and with hardware rendering below API 21. From API 21 on, hardware rendering, the
+     * default there, ignores it and records the display list of the whole view again.
+     */
+    private void invalidateTitle() {
+        final TitleSnapshot snapshot = mSnapshot;
+        final StaticLayout layout = snapshot != null
+                ? snapshot.getLayout(mDrawCollapsedText) : null;
+        final float x = mCurrentDrawX;
+        final float y = mCurrentDrawY;
+        float left = Math.min(mCurrentBounds.left, x);
+        float right = mCurrentBounds.right;
+        float bottom = mCurrentBounds.bottom;
+        if (layout != null) {
+            // Same transformation as in draw(): the layout is scaled around (x, y), including
+            // at the previous quantized scale while it is faded out
+            final float scale = isCrossfadingScaleSteps()
+                    ? Math.max(mScale, mPreviousQuantizedScale) : mScale;
+            final float layoutX = x + snapshot.getFirstLineLeft(mDrawCollapsedText)
+                    - snapshot.mExpandedFirstLineDrawX * 2;
+            left = Math.min(left, x + (layoutX - x) * scale);
+            right = Math.max(right, x + (layoutX + layout.getWidth() - x) * scale);
+            bottom = Math.max(bottom, y + layout.getHeight() * scale);
+        }
+        // The shadow may be drawn outside of the text
+        final float shadowPadding = Math.max(mExpandedShadowRadius, mCollapsedShadowRadius)
+                + Math.max(Math.max(Math.abs(mExpandedShadowDx), Math.abs(mCollapsedShadowDx)),
+                Math.max(Math.abs(mExpandedShadowDy), Math.abs(mCollapsedShadowDy)));
+
+        final int l = (int) Math.floor(left - shadowPadding);
+        final int t = (int) Math.floor(Math.min(mCurrentBounds.top, y) - shadowPadding);
+        final int r = (int) Math.ceil(right + shadowPadding);
+        final int b = (int) Math.ceil(bottom + shadowPadding);
+        if (mInvalidatedBounds.isEmpty()) {
+            mInvalidatedBounds.set(l, t, r, b);
+            ViewCompat.postInvalidateOnAnimation(mView, l, t, r, b);
+        } else {
+            // The previous frame needs to be erased as well
+            final Rect previous = mInvalidatedBounds;
+            ViewCompat.postInvalidateOnAnimation(mView, Math.min(previous.left, l),
+                    Math.min(previous.top, t), Math.max(previous.right, r),
+                    Math.max(previous.bottom, b));
+            previous.set(l, t, r, b);
+        }
+    }
+
+    /**
+     * Returns the keyframes baked for {@code snapshot} and the current configuration, baking
+     * them first if needed.
+     */
+    private TitleKeyframes getKeyframes(TitleSnapshot snapshot) {
+        TitleKeyframes keyframes = mKeyframes;
+        if (keyframes == null || keyframes.mSnapshot != snapshot
+                || keyframes.getSteps() != mKeyframeSteps) {
+            keyframes = new TitleKeyframes(snapshot, mKeyframeSteps);
+            final float[] frame = new float[TitleKeyframes.FLOAT_COUNT];
+            final int[] colors = new int[TitleKeyframes.COLOR_COUNT];
+            for (int step = 0; step <= mKeyframeSteps; step++) {
+                computeFrame(snapshot, keyframes.getFraction(step), frame, colors);
+                keyframes.setFrame(step, frame, colors);
+            }
+            mKeyframes = keyframes;
+        }
+        return keyframes;
+    }
+
+    /**
+     * Sets the number of steps the per-frame draw parameters are sampled at, or {@code 0} to
+     * compute every frame exactly.
+     */
+    void setKeyframeSteps(int steps) {
+        if (steps != mKeyframeSteps) {
+            mKeyframeSteps = Math.max(steps, 0);
+            mKeyframes = null;
+            calculateCurrentOffsets();
+        }
+    }
+
+    int getKeyframeSteps() {
+        return mKeyframeSteps;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: color and shadow stages of calculateOffsets
+    @ColorInt
+    private int getTextColor(float fraction) {
         if (mCollapsedTextColor != mExpandedTextColor) {
             // If the collapsed and expanded text colors are different, blend them based on the
             // fraction
-            mTextPaint.setColor(blendColors(
-                    getCurrentExpandedTextColor(), getCurrentCollapsedTextColor(), fraction));
+            return blendColors(
+                    getCurrentExpandedTextColor(), getCurrentCollapsedTextColor(), fraction);
         } else {
-            mTextPaint.setColor(getCurrentCollapsedTextColor());
+            return getCurrentCollapsedTextColor();
         }
+    }
+
+    private void updateTextColor(float fraction) {
+        setPaintColor(getTextColor(fraction));
+    }
 
-        mTextPaint.setShadowLayer(
+    private void updateShadowLayer(float fraction) {
+        setPaintShadowLayer(
                 lerp(mExpandedShadowRadius, mCollapsedShadowRadius, fraction, null),
                 lerp(mExpandedShadowDx, mCollapsedShadowDx, fraction, null),
                 lerp(mExpandedShadowDy, mCollapsedShadowDy, fraction, null),
                 blendColors(mExpandedShadowColor, mCollapsedShadowColor, fraction));
-
-        ViewCompat.postInvalidateOnAnimation(mView);
     }
+    // END MODIFICATION
 
+    // BEGIN MODIFICATION: the colors are resolved once per state change, through a small cache
+    // of recently seen state sets
     @ColorInt
     private int getCurrentExpandedTextColor() {
-        if (mState != null) {
-            return mExpandedTextColor.getColorForState(mState, 0);
-        } else {
-            return mExpandedTextColor.getDefaultColor();
+        if (!mStateColorsResolved) {
+            resolveStateColors();
         }
+        return mExpandedStateColor;
     }
 
     @ColorInt
     private int getCurrentCollapsedTextColor() {
-        if (mState != null) {
-            return mCollapsedTextColor.getColorForState(mState, 0);
-        } else {
-            return mCollapsedTextColor.getDefaultColor();
+        if (!mStateColorsResolved) {
+            resolveStateColors();
         }
+        return mCollapsedStateColor;
     }
 
-    private void calculateBaseOffsets() {
-        final float currentTextSize = mCurrentTextSize;
-        // We then calculate the collapsed text size, using the same logic
-        calculateUsingTextSize(mCollapsedTextSize);
+    private void resolveStateColors() {
+        mStateColorsResolved = true;
+        final int[] state = mState;
+        if (state == null) {
+            mExpandedStateColor = mExpandedTextColor.getDefaultColor();
+            mCollapsedStateColor = mCollapsedTextColor.getDefaultColor();
+            return;
+        }
+        for (int i = 0; i < STATE_COLOR_CACHE_SIZE; i++) {
+            if (Arrays.equals(mStateColorCacheKeys[i], state)) {
+                mExpandedStateColor = mStateColorCache[i * 2];
+                mCollapsedStateColor = mStateColorCache[i * 2 + 1];
+                mStats.onStateColorLookup(true);
+                return;
+            }
+        }
+        mExpandedStateColor = mExpandedTextColor.getColorForState(state, 0);
+        mCollapsedStateColor = mCollapsedTextColor.getColorForState(state, 0);
+        mStats.onStateColorLookup(false);
+
+        // The view may modify its drawable state array later on
+        final int index = mNextStateColorCacheIndex;
+        mStateColorCacheKeys[index] = state.clone();
+        mStateColorCache[index * 2] = mExpandedStateColor;
+        mStateColorCache[index * 2 + 1] = mCollapsedStateColor;
+        mNextStateColorCacheIndex = (index + 1) % STATE_COLOR_CACHE_SIZE;
+    }
 
-        // BEGIN MODIFICATION: set mTextToDrawCollapsed and calculate width using it
-        mTextToDrawCollapsed = mTextToDraw;
-        float width = mTextToDrawCollapsed != null ?
-            mTextPaint.measureText(mTextToDrawCollapsed, 0, mTextToDrawCollapsed.length()) : 0;
-        // END MODIFICATION
+    private void clearStateColors() {
+        mStateColorsResolved = false;
+        Arrays.fill(mStateColorCacheKeys, null);
+    }
+    // END MODIFICATION
 
-        final int collapsedAbsGravity = GravityCompat.getAbsoluteGravity(mCollapsedTextGravity,
-                mIsRtl ? ViewCompat.LAYOUT_DIRECTION_RTL : ViewCompat.LAYOUT_DIRECTION_LTR);
+    // BEGIN MODIFICATION: base offsets are computed into an immutable TitleSnapshot
+    /**
+     * Marks the given stages as dirty and re-runs them, unless we haven't been laid out yet.
+     */
+    private void invalidate(int flags) {
+        mDirtyFlags |= flags;
+        if (mBatchDepth == 0 && mView.getHeight() > 0 && mView.getWidth() > 0) {
+            // If we've already been laid out, update now otherwise we'll wait until a layout
+            update();
+        }
+    }
 
-        // BEGIN MODIFICATION: calculate height and Y position using mTextLayout
-        float textHeight = mTextLayout != null ? mTextLayout.getHeight() : 0;
+    /**
+     * Defers all recalculations until the matching call to {@link #endBatch()}, so that a number
+     * of changes only cause a single pass. Batches may be nested.
+     */
+    void beginBatch() {
+        mBatchDepth++;
+    }
 
-        switch (collapsedAbsGravity & Gravity.VERTICAL_GRAVITY_MASK) {
-            case Gravity.BOTTOM:
-                mCollapsedDrawY = mCollapsedBounds.bottom - textHeight;
-                break;
-            case Gravity.TOP:
-                mCollapsedDrawY = mCollapsedBounds.top;
-                break;
-            case Gravity.CENTER_VERTICAL:
-            default:
-                float textOffset = (textHeight / 2);
-                mCollapsedDrawY = mCollapsedBounds.centerY() - textOffset;
-                break;
+    /**
+     * Ends a batch started with {@link #beginBatch()} and runs the stages invalidated during it.
+     */
+    void endBatch() {
+        if (mBatchDepth > 0 && --mBatchDepth == 0 && mDirtyFlags != 0) {
+            invalidate(0);
         }
-        // END MODIFICATION
+    }
 
-        switch (collapsedAbsGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
-            case Gravity.CENTER_HORIZONTAL:
-                mCollapsedDrawX = mCollapsedBounds.centerX() - (width / 2);
-                break;
-            case Gravity.RIGHT:
-                mCollapsedDrawX = mCollapsedBounds.right - width;
-                break;
-            case Gravity.LEFT:
-            default:
-                mCollapsedDrawX = mCollapsedBounds.left;
-                break;
+    /**
+     * Re-runs the dirty stages. A new {@link TitleSnapshot} is only created for layout and offset
+     * changes, and its layouts are reused if they are not affected by the change.
+     */
+    private void update() {
+        int flags = mDirtyFlags;
+        mDirtyFlags = 0;
+        if (flags != 0) {
+            // Any stage may change the per-frame parameters
+            mKeyframes = null;
         }
-
-        calculateUsingTextSize(mExpandedTextSize);
-
-        // BEGIN MODIFICATION: calculate width using mTextLayout based on first line and store that padding
-        width = mTextLayout != null ? mTextLayout.getLineWidth(0) : 0;
-        mExpandedFirstLineDrawX = mTextLayout != null ? mTextLayout.getLineLeft(0) : 0;
-        // END MODIFICATION
-
-        final int expandedAbsGravity = GravityCompat.getAbsoluteGravity(mExpandedTextGravity,
-                mIsRtl ? ViewCompat.LAYOUT_DIRECTION_RTL : ViewCompat.LAYOUT_DIRECTION_LTR);
-
-        // BEGIN MODIFICATION: calculate height and Y position using mTextLayout
-        textHeight = mTextLayout != null ? mTextLayout.getHeight() : 0;
-        switch (expandedAbsGravity & Gravity.VERTICAL_GRAVITY_MASK) {
-            case Gravity.BOTTOM:
-                mExpandedDrawY = mExpandedBounds.bottom - textHeight;
-                break;
-            case Gravity.TOP:
-                mExpandedDrawY = mExpandedBounds.top;
-                break;
-            case Gravity.CENTER_VERTICAL:
-            default:
-                float textOffset = (textHeight / 2);
-                mExpandedDrawY = mExpandedBounds.centerY() - textOffset;
-                break;
+        if ((flags & (DIRTY_LAYOUT | DIRTY_OFFSETS)) != 0) {
+            final TitleSnapshot previous = mSnapshot;
+            final TitleSnapshot.Spec spec = createSnapshotSpec(mText);
+            if ((flags & DIRTY_LAYOUT) != 0 || previous == null
+                    || !spec.hasSameLayouts(previous.mSpec)) {
+                mSnapshot = TitleSnapshot.create(spec);
+                mStats.onLayoutPass();
+                if (Build.VERSION.SDK_INT >= 16 && mFrameMonitor != null) {
+                    // MODIFICATION: a new layout may be cheaper to draw, measure it again
+                    mFrameMonitor.reset();
+                }
+            } else {
+                mSnapshot = TitleSnapshot.create(spec, previous);
+                mStats.onOffsetPass();
+            }
+            if (mSnapshot != previous) {
+                // The geometry has changed so we need to clear the texture
+                flags |= DIRTY_TEXTURE;
+            }
         }
-        // END MODIFICATION
-
-        switch (expandedAbsGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
-            case Gravity.CENTER_HORIZONTAL:
-                mExpandedDrawX = mExpandedBounds.centerX() - (width / 2);
-                break;
-            case Gravity.RIGHT:
-                mExpandedDrawX = mExpandedBounds.right - width;
-                break;
-            case Gravity.LEFT:
-            default:
-                mExpandedDrawX = mExpandedBounds.left;
-                break;
+        // MODIFICATION: alpha textures are tinted when drawn, so only the shadow is baked into them
+        if ((mTitleTexture != null
+                && (flags & (mAlphaTextures ? DIRTY_SHADOW : DIRTY_COLOR | DIRTY_SHADOW)) != 0)
+                || (mTitleLayersValid && (flags & (DIRTY_COLOR | DIRTY_SHADOW)) != 0)) {
+            // The textures are drawn with the current color and shadow
+            flags |= DIRTY_TEXTURE;
+        }
+        if ((flags & DIRTY_TEXTURE) != 0) {
+            clearTexture();
+        }
+        if ((flags & (DIRTY_LAYOUT | DIRTY_OFFSETS | DIRTY_TEXTURE)) != 0) {
+            // This also updates the color and shadow
+            calculateCurrentOffsets();
+        } else if (flags != 0) {
+            if ((flags & DIRTY_COLOR) != 0) {
+                updateTextColor(mExpandedFraction);
+            }
+            if ((flags & DIRTY_SHADOW) != 0) {
+                updateShadowLayer(mExpandedFraction);
+            }
+            mStats.onStylePass();
+            invalidateTitle();
         }
+    }
 
-        // The bounds have changed so we need to clear the texture
-        clearTexture();
-        // Now reset the text size back to the original
-        setInterpolatedTextSize(currentTextSize);
+    /**
+     * Captures the current configuration, so that a {@link TitleSnapshot} can be computed from it
+     * on any thread.
+     */
+    private TitleSnapshot.Spec createSnapshotSpec(CharSequence text) {
+        return new TitleSnapshot.Spec(text, mTextPaint, mCollapsedBounds, mExpandedBounds,
+                mCollapsedTextSize, mExpandedTextSize, mCollapsedTypeface, mExpandedTypeface,
+                mCollapsedTextGravity, mExpandedTextGravity, maxLines, lineSpacingMultiplier,
+                lineSpacingExtra, isLayoutRtl());
     }
 
-    private void interpolateBounds(float fraction) {
-        mCurrentBounds.left = lerp(mExpandedBounds.left, mCollapsedBounds.left,
-                fraction, mPositionInterpolator);
-        mCurrentBounds.top = lerp(mExpandedDrawY, mCollapsedDrawY,
-                fraction, mPositionInterpolator);
-        mCurrentBounds.right = lerp(mExpandedBounds.right, mCollapsedBounds.right,
-                fraction, mPositionInterpolator);
-        mCurrentBounds.bottom = lerp(mExpandedBounds.bottom, mCollapsedBounds.bottom,
-                fraction, mPositionInterpolator);
+    private boolean isLayoutRtl() {
+        return ViewCompat.getLayoutDirection(mView) == ViewCompat.LAYOUT_DIRECTION_RTL;
     }
+    // END MODIFICATION
 
     public void draw(Canvas canvas) {
         final int saveCount = canvas.save();
+        // MODIFICATION: count frames for TitleStats
+        mStats.onFrame();
 
-        if (mTextToDraw != null && mDrawTitle) {
+        // BEGIN MODIFICATION: read all geometry from a single snapshot, recreating it if it has
+        // been released
+        if (mSnapshot == null && (mDirtyFlags & DIRTY_LAYOUT) != 0 && mBatchDepth == 0) {
+            update();
+        }
+        final TitleSnapshot snapshot = mSnapshot;
+        if (mCachesReleased) {
+            // Render the released textures or title layers again for the current frame
+            mCachesReleased = false;
+            if (snapshot != null) {
+                calculateCurrentOffsets();
+            }
+        }
+        final CharSequence textToDraw = snapshot != null
+                ? snapshot.getText(mDrawCollapsedText) : null;
+        // END MODIFICATION
+        if (textToDraw != null && mDrawTitle) {
+            final StaticLayout textLayout = snapshot.getLayout(mDrawCollapsedText);
+            // MODIFICATION: draw the pre-resolved characters, so that no objects are created
+            final char[] collapsedChars = snapshot.mCollapsedChars;
+            // The cross-section is the first line of the text drawn, which is all of the
+            // collapsed text once the title is collapsed
+            final char[] crossSectionChars = mDrawCollapsedText
+                    ? collapsedChars : snapshot.mExpandedFirstLineChars;
             float x = mCurrentDrawX;
             float y = mCurrentDrawY;
 
-            final boolean drawTexture = mUseTexture && mExpandedTitleTexture != null;
+            final boolean drawTexture = mUseTexture && mTitleTexture != null;
+            // MODIFICATION: the title layers draw the recorded title themselves
+            final boolean drawLayers = !drawTexture && mUseLayers && mTitleLayersValid;
             final float ascent;
             // MODIFICATION: removed now unused "descent" variable declaration
 
             // Update the TextPaint to the current text size
-            mTextPaint.setTextSize(mCurrentTextSize);
+            setPaintTextSize(mCurrentTextSize);
 
             // BEGIN MODIFICATION: new drawing code
             if (drawTexture) {
@@ -582,82 +928,446 @@ final class CollapsingTextHelper {
             if (DEBUG_DRAW) {
                 // Just a debug tool, which drawn a magenta rect in the text bounds
                 canvas.drawRect(mCurrentBounds.left, y, mCurrentBounds.right,
-                        y + mTextLayout.getHeight() * mScale,
+                        y + textLayout.getHeight() * mScale,
                         DEBUG_DRAW_PAINT);
             }
             if (mScale != 1f) {
                 canvas.scale(mScale, mScale, x, y);
             }
 
-            // Compute where to draw mTextLayout for this frame
-            final float currentExpandedX = mCurrentDrawX + mTextLayout.getLineLeft(0) - mExpandedFirstLineDrawX * 2;
+            if (!drawTexture && !drawLayers && mStats.isGlyphSizeTrackingEnabled()) {
+                // MODIFICATION: count the glyph sizes the text is rasterized at
+                mStats.onGlyphSize(mCurrentTextSize * mScale);
+            }
+            // MODIFICATION: watch the frame pacing of the scaled frames drawn as text for the
+            // AUTO render mode. The monitor needs API 16, the mode only uses it from API 18 on.
+            if (Build.VERSION.SDK_INT >= 16 && !drawTexture && mScale != 1f
+                    && isMonitoringFrames()) {
+                getFrameMonitor().onScaledFrameDrawn();
+            }
+
+            // Compute where to draw textLayout for this frame
+            final float currentExpandedX = mCurrentDrawX
+                    + snapshot.getFirstLineLeft(mDrawCollapsedText)
+                    - snapshot.mExpandedFirstLineDrawX * 2;
             if (drawTexture) {
                 // If we should use a texture, draw it instead of text
+                // BEGIN MODIFICATION: tint alpha textures with the current text color
+                final int textureAlpha;
+                if (mAlphaTextures) {
+                    mTexturePaint.setColor(mPaintColor);
+                    textureAlpha = Color.alpha(mPaintColor);
+                } else {
+                    textureAlpha = 255;
+                }
                 // Expanded text
-                mTexturePaint.setAlpha((int) (mExpandedTextBlend * 255));
-                canvas.drawBitmap(mExpandedTitleTexture, currentExpandedX, y, mTexturePaint);
+                drawTextureRect(canvas, TEXTURE_EXPANDED, currentExpandedX, y,
+                        (int) (mExpandedTextBlend * textureAlpha));
                 // Collapsed text
-                mTexturePaint.setAlpha((int) (mCollapsedTextBlend * 255));
-                canvas.drawBitmap(mCollapsedTitleTexture, x, y, mTexturePaint);
+                drawTextureRect(canvas, TEXTURE_COLLAPSED, x, y,
+                        (int) (mCollapsedTextBlend * textureAlpha));
                 // Cross-section between both texts (should stay at alpha = 255)
-                mTexturePaint.setAlpha(255);
-                canvas.drawBitmap(mCrossSectionTitleTexture, x, y, mTexturePaint);
+                drawTextureRect(canvas, TEXTURE_CROSS_SECTION, x, y, textureAlpha);
+                // END MODIFICATION
+                mStats.onTextDraw(3);
+            } else if (drawLayers) {
+                // MODIFICATION: nothing to draw, see updateTitleLayers()
+            } else if (isCrossfadingScaleSteps()) {
+                // MODIFICATION: crossfade from the previous quantized scale to the current one
+                final float progress = (mScaleCrossfadeFrame + 1f)
+                        / (SCALE_STEP_CROSSFADE_FRAMES + 1);
+                final int stepSaveCount = canvas.save();
+                final float previousScale = mPreviousQuantizedScale / mScale;
+                canvas.scale(previousScale, previousScale, x, y);
+                drawTitleText(canvas, snapshot, textLayout, crossSectionChars, currentExpandedX,
+                        x, y, -ascent / mScale, (int) ((1f - progress) * 255));
+                canvas.restoreToCount(stepSaveCount);
+                drawTitleText(canvas, snapshot, textLayout, crossSectionChars, currentExpandedX,
+                        x, y, -ascent / mScale, (int) (progress * 255));
+                mScaleCrossfadeFrame++;
+                // Finish the crossfade even if the title doesn't move anymore
+                invalidateTitle();
             } else {
-                // positon expanded text appropriately
-                canvas.translate(currentExpandedX, y);
-                // Expanded text
-                mTextPaint.setAlpha((int) (mExpandedTextBlend * 255));
-                mTextLayout.draw(canvas);
-
-                // position the overlays
-                canvas.translate(x - currentExpandedX, 0);
-
-                // Collapsed text
-                mTextPaint.setAlpha((int) (mCollapsedTextBlend * 255));
-                canvas.drawText(mTextToDrawCollapsed, 0, mTextToDrawCollapsed.length(), 0,
-                        -ascent / mScale, mTextPaint);
-                // Cross-section between both texts (should stay at alpha = 255)
-                mTextPaint.setAlpha(255);
-                canvas.drawText(mTextToDraw, mTextLayout.getLineStart(0),
-                        mTextLayout.getLineEnd(0), 0, -ascent / mScale, mTextPaint);
+                drawTitleText(canvas, snapshot, textLayout, crossSectionChars, currentExpandedX,
+                        x, y, -ascent / mScale, 255);
             }
             // END MODIFICATION
         }
         canvas.restoreToCount(saveCount);
     }
 
-    private boolean calculateIsRtl(CharSequence text) {
-        final boolean defaultIsRtl = ViewCompat.getLayoutDirection(mView)
-                == ViewCompat.LAYOUT_DIRECTION_RTL;
-        return (defaultIsRtl
-                ? TextDirectionHeuristicsCompat.FIRSTSTRONG_RTL
-                : TextDirectionHeuristicsCompat.FIRSTSTRONG_LTR).isRtl(text, 0, text.length());
+    // BEGIN MODIFICATION: scale quantization
+    /**
+     * Draws the title as text, either in a single pass or as the expanded text, the collapsed
+     * text and their cross-section on top of each other, with the alpha of all of them
+     * multiplied by {@code alpha / 255}.
+     */
+    private void drawTitleText(Canvas canvas, TitleSnapshot snapshot, StaticLayout textLayout,
+            char[] crossSectionChars, float currentExpandedX, float x, float y, float baseline,
+            int alpha) {
+        if (canDrawSinglePass(snapshot)) {
+            // MODIFICATION: single-pass crossfade
+            drawSinglePass(canvas, snapshot, textLayout, currentExpandedX, x, y, baseline, alpha);
+            return;
+        }
+        final int saveCount = canvas.save();
+        // positon expanded text appropriately
+        canvas.translate(currentExpandedX, y);
+        // Expanded text
+        setPaintAlpha((int) (mExpandedTextBlend * alpha));
+        drawTextLayout(canvas, textLayout);
+
+        // position the overlays
+        canvas.translate(x - currentExpandedX, 0);
+
+        // Collapsed text
+        final char[] collapsedChars = snapshot.mCollapsedChars;
+        setPaintAlpha((int) (mCollapsedTextBlend * alpha));
+        canvas.drawText(collapsedChars, 0, collapsedChars.length, 0, baseline, mTextPaint);
+        // Cross-section between both texts (should stay at the full alpha of this pass)
+        setPaintAlpha(alpha);
+        if (crossSectionChars != null) {
+            canvas.drawText(crossSectionChars, 0, crossSectionChars.length, 0, baseline,
+                    mTextPaint);
+        }
+        canvas.restoreToCount(saveCount);
+        mStats.onTextDraw(3);
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: single-pass crossfade
+    /**
+     * Returns whether the crossfade can be drawn by {@link #drawSinglePass}. The expanded layout
+     * always places its first line where the collapsed text starts, so this only depends on the
+     * texts, see {@link TitleSnapshot#mSinglePassAllowed}.
+     */
+    private boolean canDrawSinglePass(TitleSnapshot snapshot) {
+        return mSinglePassCrossfade && !mDrawCollapsedText && snapshot.mSinglePassAllowed;
+    }
+
+    /**
+     * Draws the crossfade with as little overdraw as possible. The first line is shared by the
+     * expanded and collapsed text and drawn once at full alpha, as it would end up after drawing
+     * it three times. Only the remaining lines of the expanded text and the rest of the collapsed
+     * text are faded. All alphas are multiplied by {@code alpha / 255}.
+     */
+    private void drawSinglePass(Canvas canvas, TitleSnapshot snapshot, StaticLayout textLayout,
+            float currentExpandedX, float x, float y, float baseline, int alpha) {
+        final int singlePassSaveCount = canvas.save();
+        canvas.translate(currentExpandedX, y);
+        final int expandedAlpha = (int) (mExpandedTextBlend * alpha);
+        if (textLayout.getLineCount() > 1 && expandedAlpha > 0) {
+            setPaintAlpha(expandedAlpha);
+            final int saveCount = canvas.save();
+            // Cut off the first line, leaving room for shadows everywhere else. The line spacing
+            // is never negative here, so the second line starts below the first one.
+            final int width = textLayout.getWidth();
+            canvas.clipRect(-width, textLayout.getLineTop(1), 2 * width,
+                    2 * textLayout.getHeight());
+            drawTextLayout(canvas, textLayout);
+            canvas.restoreToCount(saveCount);
+            mStats.onTextDraw(1);
+        }
+
+        canvas.translate(x - currentExpandedX, 0);
+        final char[] firstLineChars = snapshot.mExpandedFirstLineChars;
+        setPaintAlpha(alpha);
+        canvas.drawText(firstLineChars, 0, firstLineChars.length, 0, baseline, mTextPaint);
+        mStats.onTextDraw(1);
+
+        final char[] collapsedChars = snapshot.mCollapsedChars;
+        final int suffixStart = snapshot.mCollapsedSuffixStart;
+        final int collapsedAlpha = (int) (mCollapsedTextBlend * alpha);
+        if (suffixStart < collapsedChars.length && collapsedAlpha > 0) {
+            setPaintAlpha(collapsedAlpha);
+            canvas.drawText(collapsedChars, suffixStart, collapsedChars.length - suffixStart,
+                    snapshot.mExpandedFirstLineAdvance, baseline, mTextPaint);
+            mStats.onTextDraw(1);
+        }
+        canvas.restoreToCount(singlePassSaveCount);
+    }
+
+    /**
+     * Sets whether the crossfade between the expanded and collapsed title is drawn in a single
+     * pass where possible, instead of drawing both texts and their shared first line on top of
+     * each other.
+     */
+    void setSinglePassCrossfadeEnabled(boolean enabled) {
+        if (mSinglePassCrossfade != enabled) {
+            mSinglePassCrossfade = enabled;
+            invalidateTitle();
+        }
+    }
+
+    boolean isSinglePassCrossfadeEnabled() {
+        return mSinglePassCrossfade;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: alpha textures
+    /**
+     * Sets whether the title textures only store the glyph coverage in {@code ALPHA_8} bitmaps
+     * where possible, which are tinted with the current text color when drawn.
+     */
+    void setAlphaTexturesEnabled(boolean enabled) {
+        if (mAlphaTexturesEnabled != enabled) {
+            mAlphaTexturesEnabled = enabled;
+            invalidate(DIRTY_TEXTURE);
+        }
+    }
+
+    boolean isAlphaTexturesEnabled() {
+        return mAlphaTexturesEnabled;
+    }
+
+    /**
+     * Returns whether the textures of {@code snapshot} can be alpha textures. The text must be
+     * drawn in a single color and without a shadow, which would be tinted as well.
+     */
+    private boolean canUseAlphaTextures(TitleSnapshot snapshot) {
+        if (!mAlphaTexturesEnabled || hasShadow(mExpandedShadowRadius, mExpandedShadowColor)
+                || hasShadow(mCollapsedShadowRadius, mCollapsedShadowColor)) {
+            return false;
+        }
+        final CharSequence text = snapshot.mSpec.mText;
+        return !(text instanceof Spanned)
+                || ((Spanned) text).getSpans(0, text.length(), CharacterStyle.class).length == 0;
+    }
+
+    private static boolean hasShadow(float radius, @ColorInt int color) {
+        return radius > 0 && Color.alpha(color) != 0;
+    }
+
+    /**
+     * Sets up the paint to draw the textures, as they are drawn with the expanded text.
+     */
+    private void calculateTextureOffsets() {
+        calculateOffsets(0f);
+        if (mAlphaTextures) {
+            // Only the coverage is stored, the color alpha is applied when drawing
+            setPaintAlpha(255);
+        }
+    }
+
+    private Bitmap.Config getTextureConfig() {
+        return mAlphaTextures ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: render modes
+    /**
+     * Sets how the title is drawn while it is scaled, one of the
+     * {@code CollapsingToolbarLayout.TITLE_RENDER_MODE_*} constants.
+     */
+    void setRenderMode(int mode) {
+        if (mode != mRenderMode) {
+            mRenderMode = mode;
+            if (Build.VERSION.SDK_INT >= 16 && mFrameMonitor != null) {
+                mFrameMonitor.reset();
+            }
+            invalidate(DIRTY_TEXTURE);
+        }
+    }
+
+    int getRenderMode() {
+        return mRenderMode;
+    }
+
+    private boolean shouldUseTexture() {
+        switch (mRenderMode) {
+            case CollapsingToolbarLayout.TITLE_RENDER_MODE_TEXTURE:
+                return true;
+            case CollapsingToolbarLayout.TITLE_RENDER_MODE_AUTO:
+                return USE_SCALING_TEXTURE || (Build.VERSION.SDK_INT >= 16
+                        && mFrameMonitor != null && mFrameMonitor.isSlow());
+            case CollapsingToolbarLayout.TITLE_RENDER_MODE_RECORDED:
+                return !canUseLayers();
+            default:
+                return false;
+        }
+    }
+
+    private boolean canUseLayers() {
+        return CAN_USE_LAYERS && mView instanceof ViewGroup;
+    }
+
+    /**
+     * Returns whether the scaled title can be drawn by layers, which requires it to look the same
+     * whether it is expanded or collapsed, except for its scale.
+     */
+    private boolean shouldUseLayers() {
+        return mRenderMode == CollapsingToolbarLayout.TITLE_RENDER_MODE_RECORDED
+                && canUseLayers()
+                && getCurrentExpandedTextColor() == getCurrentCollapsedTextColor()
+                && mExpandedShadowRadius == mCollapsedShadowRadius
+                && mExpandedShadowDx == mCollapsedShadowDx
+                && mExpandedShadowDy == mCollapsedShadowDy
+                && mExpandedShadowColor == mCollapsedShadowColor;
+    }
+
+    private boolean isMonitoringFrames() {
+        return mRenderMode == CollapsingToolbarLayout.TITLE_RENDER_MODE_AUTO
+                && !USE_SCALING_TEXTURE;
+    }
+
+    /**
+     * Returns the frame monitor of the AUTO render mode. Once it has found the scaled frames
+     * drawn as text to be slow, textures are used until the layout of the title changes.
+     */
+    @RequiresApi(16)
+    private TitleFrameMonitor getFrameMonitor() {
+        if (mFrameMonitor == null) {
+            mFrameMonitor = new TitleFrameMonitor(mView, new TitleFrameMonitor.Listener() {
+                @Override
+                public void onSlowFramesDetected() {
+                    invalidate(DIRTY_TEXTURE);
+                }
+            });
+        }
+        return mFrameMonitor;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: new drawTextLayout method
+    /**
+     * Draws {@code layout} using the current state of {@link #mTextPaint}. Layouts coming from
+     * {@link TitleLayoutCache} are shared and have their own paint, so sync it first.
+     */
+    private void drawTextLayout(Canvas canvas, StaticLayout layout) {
+        final TextPaint layoutPaint = layout.getPaint();
+        if (layoutPaint instanceof TitleLayoutCache.LayoutPaint) {
+            // Skip the sync if the paint already has our current state
+            final TitleLayoutCache.LayoutPaint paint = (TitleLayoutCache.LayoutPaint) layoutPaint;
+            if (paint.mOwnerId != mPaintOwnerId || paint.mVersion != mPaintVersion) {
+                paint.set(mTextPaint);
+                paint.mOwnerId = mPaintOwnerId;
+                paint.mVersion = mPaintVersion;
+            } else {
+                mStats.onPaintMutationSkipped();
+            }
+        } else if (layoutPaint != mTextPaint) {
+            layoutPaint.set(mTextPaint);
+        }
+        layout.draw(canvas);
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: paint state diffing, the paint is only touched if a value changes
+    private void setPaintColor(@ColorInt int color) {
+        if (color != mPaintColor) {
+            mTextPaint.setColor(color);
+            mPaintColor = color;
+            onPaintChanged();
+        } else {
+            mStats.onPaintMutationSkipped();
+        }
+    }
+
+    private void setPaintAlpha(int alpha) {
+        if (alpha != Color.alpha(mPaintColor)) {
+            mTextPaint.setAlpha(alpha);
+            mPaintColor = (mPaintColor & 0x00ffffff) | (alpha << 24);
+            onPaintChanged();
+        } else {
+            mStats.onPaintMutationSkipped();
+        }
+    }
+
+    private void setPaintTextSize(float textSize) {
+        if (textSize != mPaintTextSize) {
+            mTextPaint.setTextSize(textSize);
+            mPaintTextSize = textSize;
+            onPaintChanged();
+        } else {
+            mStats.onPaintMutationSkipped();
+        }
     }
 
-    private void setInterpolatedTextSize(float textSize) {
-        calculateUsingTextSize(textSize);
+    private void setPaintShadowLayer(float radius, float dx, float dy, @ColorInt int color) {
+        if (radius != mPaintShadowRadius || dx != mPaintShadowDx || dy != mPaintShadowDy
+                || color != mPaintShadowColor) {
+            mTextPaint.setShadowLayer(radius, dx, dy, color);
+            mPaintShadowRadius = radius;
+            mPaintShadowDx = dx;
+            mPaintShadowDy = dy;
+            mPaintShadowColor = color;
+            onPaintChanged();
+        } else {
+            // Most notably when neither text appearance has a shadow
+            mStats.onPaintMutationSkipped();
+        }
+    }
+
+    private void onPaintChanged() {
+        mPaintVersion++;
+        mStats.onPaintMutation();
+    }
+    // END MODIFICATION
+
+    private void setInterpolatedTextSize(TitleSnapshot snapshot, float textSize) {
+        // BEGIN MODIFICATION: pick the collapsed or expanded text of the snapshot, the layouts
+        // themselves have already been created
+        final TitleSnapshot.Spec spec = snapshot.mSpec;
+        final boolean drawCollapsedText = isClose(textSize, spec.mCollapsedTextSize);
+        if (drawCollapsedText) {
+            mCurrentTextSize = spec.mCollapsedTextSize;
+            mScale = 1f;
+        } else {
+            mCurrentTextSize = spec.mExpandedTextSize;
+            if (isClose(textSize, spec.mExpandedTextSize)) {
+                // If we're close to the expanded text size, snap to it and use a scale of 1
+                mScale = 1f;
+            } else {
+                // Else, we'll scale down from the expanded text size
+                mScale = textSize / spec.mExpandedTextSize;
+                // MODIFICATION: draw text at a few discrete scales only
+                if (mScaleSteps > 0 && !shouldUseTexture()) {
+                    mScale = getQuantizedScale(mScale);
+                }
+            }
+        }
+        mDrawCollapsedText = drawCollapsedText;
+        final Typeface typeface = drawCollapsedText
+                ? spec.mCollapsedTypeface : spec.mExpandedTypeface;
+        if (mTextPaint.getTypeface() != typeface) {
+            mTextPaint.setTypeface(typeface);
+            onPaintChanged();
+        }
+        setPaintTextSize(mCurrentTextSize);
+        // END MODIFICATION
         // Use our texture if the scale isn't 1.0
-        mUseTexture = USE_SCALING_TEXTURE && mScale != 1f;
+        // BEGIN MODIFICATION: textures depend on the render mode and are rendered again once
+        // the scale drifts too far from the one they have been rendered at
+        mUseTexture = mScale != 1f && shouldUseTexture();
         if (mUseTexture) {
-            // Make sure we have an expanded texture if needed
-            ensureExpandedTexture();
-            // BEGIN MODIFICATION: added collapsed and cross section textures
-            ensureCollapsedTexture();
-            ensureCrossSectionTexture();
+            final float scale = mScale;
+            if (mTitleTexture != null && mTextureLevelCount == 1
+                    && (scale > mTextureScales[0] * MAX_TEXTURE_SCALE_DRIFT
+                    || scale * MAX_TEXTURE_SCALE_DRIFT < mTextureScales[0])) {
+                clearTexture();
+            }
+            // Make sure we have the texture atlas if needed
+            ensureTitleTexture(scale);
+            // Rendering the textures applied the expanded text, switch back to this frame
+            mScale = scale;
+            mUseTexture = true;
+            mTextureLevel = getTextureLevel(scale);
+        }
+        mUseLayers = !mUseTexture && mScale != 1f && shouldUseLayers();
+        if (mUseLayers) {
+            ensureTitleLayers(snapshot);
         }
-        ViewCompat.postInvalidateOnAnimation(mView);
         // END MODIFICATION
+        // MODIFICATION: removed invalidation, done once per frame by invalidateTitle()
     }
 
     // BEGIN MODIFICATION: new setCollapsedTextBlend and setExpandedTextBlend methods
     private void setCollapsedTextBlend(float blend) {
         mCollapsedTextBlend = blend;
-        ViewCompat.postInvalidateOnAnimation(mView);
     }
 
     private void setExpandedTextBlend(float blend) {
         mExpandedTextBlend = blend;
-        ViewCompat.postInvalidateOnAnimation(mView);
     }
     // END MODIFICATION
 
@@ -665,242 +1375,643 @@ final class CollapsingTextHelper {
         return (first != null && !first.equals(second)) || (first == null && second != null);
     }
 
-    private void calculateUsingTextSize(final float textSize) {
-        if (mText == null) return;
-
-        final float collapsedWidth = mCollapsedBounds.width();
-        final float expandedWidth = mExpandedBounds.width();
-
-        final float availableWidth;
-        final float newTextSize;
-        boolean updateDrawText = false;
-        // BEGIN MODIFICATION: Add maxLines variable
-        int maxLines;
-        // END MODIFICATION
-        if (isClose(textSize, mCollapsedTextSize)) {
-            newTextSize = mCollapsedTextSize;
-            mScale = 1f;
-            if (areTypefacesDifferent(mCurrentTypeface, mCollapsedTypeface)) {
-                mCurrentTypeface = mCollapsedTypeface;
-                updateDrawText = true;
+    // BEGIN MODIFICATION: replaced ensureExpandedTexture, ensureCollapsedTexture and
+    // ensureCrossSectionTexture with a single texture atlas
+    /**
+     * Creates the texture atlas if needed. The expanded, collapsed and cross-section textures are
+     * stacked on top of each other, so that they share a single bitmap and upload.
+     *
+     * <p>With a single level, they are rendered at the step of {@link #TEXTURE_SCALE_STEPS}
+     * closest to {@code scale}. Otherwise, they are rendered at as many scales between the
+     * expanded and collapsed text size as fit the budget of {@link TitleBitmapPool}. The first
+     * level is placed on the left, the smaller ones in a column to the right of it.</p>
+     */
+    private void ensureTitleTexture(float scale) {
+        final TitleSnapshot snapshot = mSnapshot;
+        if (mTitleTexture != null || snapshot == null
+                || TextUtils.isEmpty(snapshot.mExpandedText)
+                || (mExpandedBounds.isEmpty() && mCollapsedBounds.isEmpty())) {
+            return;
+        }
+        mAlphaTextures = canUseAlphaTextures(snapshot);
+        calculateTextureOffsets();
+
+        final StaticLayout textLayout = snapshot.mExpandedLayout;
+        final char[] collapsedChars = snapshot.mCollapsedChars;
+        final char[] firstLineChars = snapshot.mExpandedFirstLineChars;
+        final float lineHeight = mTextPaint.descent() - mTextPaint.ascent();
+        final boolean hasExpanded = !mExpandedBounds.isEmpty();
+        final boolean hasCollapsed = !mCollapsedBounds.isEmpty()
+                && !TextUtils.isEmpty(snapshot.mCollapsedText);
+        final boolean hasCrossSection = !mCollapsedBounds.isEmpty();
+        final float expandedWidth = hasExpanded ? textLayout.getWidth() : 0;
+        final float expandedHeight = hasExpanded ? textLayout.getHeight() : 0;
+        final float collapsedWidth = hasCollapsed
+                ? mTextPaint.measureText(collapsedChars, 0, collapsedChars.length) : 0;
+        final float crossSectionWidth = hasCrossSection
+                ? mTextPaint.measureText(firstLineChars, 0, firstLineChars.length) : 0;
+
+        final float minScale = snapshot.mSpec.mCollapsedTextSize / snapshot.mSpec.mExpandedTextSize;
+        final int levels = getTextureLevelCount(minScale,
+                Math.max(expandedWidth, Math.max(collapsedWidth, crossSectionWidth))
+                        * (expandedHeight + 2 * lineHeight));
+        if (mTextureScales.length != levels) {
+            mTextureScales = new float[levels];
+            mTextureRects = new Rect[levels * TEXTURE_COUNT];
+            for (int i = 0; i < mTextureRects.length; i++) {
+                mTextureRects[i] = new Rect();
             }
-            availableWidth = collapsedWidth;
-            // BEGIN MODIFICATION: Set maxLines variable
-            maxLines = 1;
-            // END MODIFICATION
-        } else {
-            newTextSize = mExpandedTextSize;
-            if (areTypefacesDifferent(mCurrentTypeface, mExpandedTypeface)) {
-                mCurrentTypeface = mExpandedTypeface;
-                updateDrawText = true;
+        }
+        mTextureLevelCount = levels;
+
+        int width = 0;
+        int height = 0;
+        int columnLeft = 0;
+        int columnTop = 0;
+        for (int level = 0; level < levels; level++) {
+            final float textureScale = levels == 1
+                    ? getTextureScale(scale) : getTextureLevelScale(level, levels, minScale);
+            mTextureScales[level] = textureScale;
+            final int offset = level * TEXTURE_COUNT;
+            int top = columnTop;
+            top = stackTextureRect(mTextureRects[offset + TEXTURE_EXPANDED], columnLeft, top,
+                    expandedWidth * textureScale, expandedHeight * textureScale);
+            top = stackTextureRect(mTextureRects[offset + TEXTURE_COLLAPSED], columnLeft, top,
+                    collapsedWidth * textureScale, lineHeight * textureScale);
+            top = stackTextureRect(mTextureRects[offset + TEXTURE_CROSS_SECTION], columnLeft,
+                    top, crossSectionWidth * textureScale, lineHeight * textureScale);
+            for (int i = offset; i < offset + TEXTURE_COUNT; i++) {
+                width = Math.max(width, mTextureRects[i].right);
             }
-            if (isClose(textSize, mExpandedTextSize)) {
-                // If we're close to the expanded text size, snap to it and use a scale of 1
-                mScale = 1f;
+            height = Math.max(height, top);
+            if (level == 0) {
+                columnLeft = width;
             } else {
-                // Else, we'll scale down from the expanded text size
-                mScale = textSize / mExpandedTextSize;
-            }
-            final float textSizeRatio = mCollapsedTextSize / mExpandedTextSize;
-            // This is the size of the expanded bounds when it is scaled to match the
-            // collapsed text size
-            final float scaledDownWidth = expandedWidth * textSizeRatio;
-
-            if (scaledDownWidth > collapsedWidth) {
-                // If the scaled down size is larger than the actual collapsed width, we need to
-                // cap the available width so that when the expanded text scales down, it matches
-                // the collapsed width
-                availableWidth = Math.min(collapsedWidth / textSizeRatio, expandedWidth);
-            } else {
-                // Otherwise we'll just use the expanded width
-                availableWidth = expandedWidth;
+                columnTop = top;
             }
-
-            // BEGIN MODIFICATION: Set maxLines variable
-            maxLines = this.maxLines;
-            // END MODIFICATION
         }
-        if (availableWidth > 0) {
-            updateDrawText = (mCurrentTextSize != newTextSize) || mBoundsChanged || updateDrawText;
-            mCurrentTextSize = newTextSize;
-            mBoundsChanged = false;
-        }
-        if (mTextToDraw == null || updateDrawText) {
-            mTextPaint.setTextSize(mCurrentTextSize);
-            mTextPaint.setTypeface(mCurrentTypeface);
-
-            // BEGIN MODIFICATION: Text layout creation and text truncation
-            StaticLayout layout = new StaticLayout(mText, mTextPaint, (int) availableWidth,
-                    Layout.Alignment.ALIGN_NORMAL, lineSpacingMultiplier, lineSpacingExtra, false);
-            CharSequence truncatedText;
-            if (layout.getLineCount() > maxLines) {
-                int lastLine = maxLines - 1;
-                CharSequence textBefore =
-                        lastLine > 0 ? mText.subSequence(0, layout.getLineEnd(lastLine - 1)) : "";
-                CharSequence lineText = mText.subSequence(layout.getLineStart(lastLine),
-                        layout.getLineEnd(lastLine));
-                // if last char in line is space, move it behind the ellipsis
-                CharSequence lineEnd = "";
-                if (lineText.charAt(lineText.length() - 1) == ' ') {
-                    lineEnd = lineText.subSequence(lineText.length() - 1, lineText.length());
-                    lineText = lineText.subSequence(0, lineText.length() - 1);
-                }
-                // insert ellipsis character
-                lineText = TextUtils.concat(lineText, "\u2026", lineEnd);
-                // if the text is too long, truncate it
-                CharSequence truncatedLineText = TextUtils.ellipsize(lineText, mTextPaint,
-                        availableWidth, TextUtils.TruncateAt.END);
-                truncatedText = TextUtils.concat(textBefore, truncatedLineText);
+        if (width <= 0 || height <= 0) {
+            return; // If the width or height are 0, return
+        }
 
-            } else {
-                truncatedText = mText;
+        mTitleTexture = TitleBitmapPool.acquire(width, height, getTextureConfig());
+        final Canvas c = new Canvas(mTitleTexture);
+        final float baseline = -mTextPaint.ascent() / mScale;
+        for (int level = 0; level < levels; level++) {
+            final float textureScale = mTextureScales[level];
+            final int offset = level * TEXTURE_COUNT;
+            Rect rect = mTextureRects[offset + TEXTURE_EXPANDED];
+            if (!rect.isEmpty()) {
+                final int saveCount = c.save();
+                c.translate(rect.left, rect.top);
+                c.scale(textureScale, textureScale);
+                drawTextLayout(c, textLayout);
+                c.restoreToCount(saveCount);
             }
-            if (!TextUtils.equals(truncatedText, mTextToDraw)) {
-                mTextToDraw = truncatedText;
-                mIsRtl = calculateIsRtl(mTextToDraw);
+            rect = mTextureRects[offset + TEXTURE_COLLAPSED];
+            if (!rect.isEmpty()) {
+                final int saveCount = c.save();
+                c.translate(rect.left, rect.top);
+                c.scale(textureScale, textureScale);
+                c.drawText(collapsedChars, 0, collapsedChars.length, 0, baseline, mTextPaint);
+                c.restoreToCount(saveCount);
             }
-
-            final Layout.Alignment alignment;
-
-            // Don't rectify gravity for RTL languages, Layout.Alignment does it already.
-            switch (mExpandedTextGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
-                case Gravity.CENTER_HORIZONTAL:
-                    alignment = Layout.Alignment.ALIGN_CENTER;
-                    break;
-                case Gravity.RIGHT:
-                case Gravity.END:
-                    alignment = Layout.Alignment.ALIGN_OPPOSITE;
-                    break;
-                case Gravity.LEFT:
-                case Gravity.START:
-                default:
-                    alignment = Layout.Alignment.ALIGN_NORMAL;
-                    break;
+            rect = mTextureRects[offset + TEXTURE_CROSS_SECTION];
+            if (!rect.isEmpty()) {
+                final int saveCount = c.save();
+                c.translate(rect.left, rect.top);
+                c.scale(textureScale, textureScale);
+                c.drawText(firstLineChars, 0, firstLineChars.length, 0, baseline, mTextPaint);
+                c.restoreToCount(saveCount);
             }
+        }
+        mStats.onTextureAtlasRebuild(mTitleTexture.getByteCount());
 
-            mTextLayout = new StaticLayout(mTextToDraw, mTextPaint, (int) availableWidth,
-                alignment, lineSpacingMultiplier, lineSpacingExtra, false);
-            // END MODIFICATION
+        if (mTexturePaint == null) {
+            // Make sure we have a paint
+            mTexturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
         }
     }
 
-    private void ensureExpandedTexture() {
-        if (mExpandedTitleTexture != null || mExpandedBounds.isEmpty()
-                || TextUtils.isEmpty(mTextToDraw)) {
-            return;
+    /**
+     * Places {@code rect} at {@code left}, {@code top} in the texture atlas, or leaves it empty if
+     * there is nothing to draw. Returns the top of the next one.
+     */
+    private static int stackTextureRect(Rect rect, int left, int top, float width, float height) {
+        if (width <= 0 || height <= 0) {
+            rect.setEmpty();
+            return top;
         }
-        calculateOffsets(0f);
+        rect.set(left, top, left + (int) Math.ceil(width), top + (int) Math.ceil(height));
+        return rect.bottom;
+    }
 
-        // BEGIN MODIFICATION: Calculate width and height using mTextLayout and remove
-        // mTextureAscent and mTextureDescent assignment
-        final int w = mTextLayout.getWidth();
-        final int h = mTextLayout.getHeight();
-        // END MODIFICATION
+    /**
+     * Returns the scale to render textures at which is closest to {@code scale}. Textures are
+     * only rendered at a few discrete scales, and scaled from there.
+     */
+    private static float getTextureScale(float scale) {
+        final double steps = Math.log(scale) / Math.log(2) * TEXTURE_SCALE_STEPS;
+        return (float) Math.pow(2, Math.round(steps) / (double) TEXTURE_SCALE_STEPS);
+    }
 
-        if (w <= 0 || h <= 0) {
-            return; // If the width or height are 0, return
+    /**
+     * Returns the scale of {@code level}, with the levels evenly spaced on a logarithmic scale
+     * from the expanded ({@code 1}) to the collapsed text size ({@code minScale}).
+     */
+    private static float getTextureLevelScale(int level, int levels, float minScale) {
+        return (float) Math.pow(minScale, (double) level / (levels - 1));
+    }
+
+    /**
+     * Returns how many levels the texture atlas should have. Levels are dropped until the atlas,
+     * estimated from the {@code area} of a single level at the expanded size, fits the budget of
+     * {@link TitleBitmapPool}.
+     */
+    private int getTextureLevelCount(float minScale, float area) {
+        if (minScale == 1f) {
+            // The title is never scaled
+            return 1;
         }
-        mExpandedTitleTexture = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        final long maxSize = TitleBitmapPool.getMaxSize();
+        final int bytesPerPixel = mAlphaTextures ? 1 : 4;
+        for (int levels = mMaxTextureLevels; levels > 1; levels--) {
+            float size = 0;
+            for (int level = 0; level < levels; level++) {
+                final float levelScale = getTextureLevelScale(level, levels, minScale);
+                size += area * levelScale * levelScale * bytesPerPixel;
+            }
+            if (size <= maxSize) {
+                return levels;
+            }
+        }
+        return 1;
+    }
 
-        // BEGIN MODIFICATION: Draw text using mTextLayout
-        Canvas c = new Canvas(mExpandedTitleTexture);
-        mTextLayout.draw(c);
-        // END MODIFICATION
-        if (mTexturePaint == null) {
-            // Make sure we have a paint
-            mTexturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    /**
+     * Returns the level of the texture atlas whose scale is the closest to {@code scale}.
+     */
+    private int getTextureLevel(float scale) {
+        int closestLevel = 0;
+        float closestRatio = Float.MAX_VALUE;
+        for (int level = 0; level < mTextureLevelCount; level++) {
+            final float levelScale = mTextureScales[level];
+            final float ratio = scale > levelScale ? scale / levelScale : levelScale / scale;
+            if (ratio < closestRatio) {
+                closestLevel = level;
+                closestRatio = ratio;
+            }
         }
+        return closestLevel;
     }
 
-    // BEGIN MODIFICATION: new ensureCollapsedTexture and ensureCrossSectionTexture methods
-    private void ensureCollapsedTexture() {
-        if (mCollapsedTitleTexture != null || mCollapsedBounds.isEmpty()
-                || TextUtils.isEmpty(mTextToDraw)) {
+    private void drawTextureRect(Canvas canvas, int texture, float x, float y, int alpha) {
+        final Rect textureRect = mTextureRects[mTextureLevel * TEXTURE_COUNT + texture];
+        if (!textureRect.isEmpty()) {
+            final float textureScale = mTextureScales[mTextureLevel];
+            mTexturePaint.setAlpha(alpha);
+            mTextureDestination.set(x, y, x + textureRect.width() / textureScale,
+                    y + textureRect.height() / textureScale);
+            canvas.drawBitmap(mTitleTexture, textureRect, mTextureDestination, mTexturePaint);
+        }
+    }
+
+    /**
+     * Sets the maximum number of scales the title textures are rendered at, see
+     * {@link #ensureTitleTexture(float)}.
+     */
+    void setMaxTextureLevels(int levels) {
+        if (levels != mMaxTextureLevels) {
+            mMaxTextureLevels = Math.max(levels, 1);
+            invalidate(DIRTY_TEXTURE);
+        }
+    }
+
+    int getMaxTextureLevels() {
+        return mMaxTextureLevels;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: recorded title
+    /**
+     * Draws the expanded, collapsed and cross-section text into the title layers if needed, in
+     * the same way as {@link #ensureTitleTexture(float)} renders them into textures. The layers
+     * are added to the overlay of {@link #mView} the first time.
+     */
+    private void ensureTitleLayers(TitleSnapshot snapshot) {
+        if (mTitleLayersValid || TextUtils.isEmpty(snapshot.mExpandedText)) {
             return;
         }
-        calculateOffsets(0f);
-        final int w = Math.round(mTextPaint.measureText(mTextToDraw, 0, mTextToDraw.length()));
-        final int h = Math.round(mTextPaint.descent() - mTextPaint.ascent());
-        if (w <= 0 && h <= 0) {
-            return; // If the width or height are 0, return
+        if (mTitleLayers == null) {
+            mTitleLayers = new TitleLayerView[TEXTURE_COUNT];
+            for (int i = 0; i < TEXTURE_COUNT; i++) {
+                final TitleLayerView layer = new TitleLayerView(mView.getContext());
+                layer.setVisibility(mTitleLayersVisible ? View.VISIBLE : View.INVISIBLE);
+                ((ViewGroup) mView).getOverlay().add(layer);
+                mTitleLayers[i] = layer;
+            }
         }
-        mCollapsedTitleTexture = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        Canvas c = new Canvas(mCollapsedTitleTexture);
-        c.drawText(mTextToDrawCollapsed, 0, mTextToDrawCollapsed.length(), 0,
-                -mTextPaint.ascent() / mScale, mTextPaint);
-        if (mTexturePaint == null) {
-            // Make sure we have a paint
-            mTexturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        // Draw with the expanded text, the alpha is applied by the layers
+        setPaintColor(getCurrentExpandedTextColor());
+        setPaintAlpha(255);
+        setPaintShadowLayer(mExpandedShadowRadius, mExpandedShadowDx, mExpandedShadowDy,
+                mExpandedShadowColor);
+        final int padding = (int) Math.ceil(mExpandedShadowRadius
+                + Math.max(Math.abs(mExpandedShadowDx), Math.abs(mExpandedShadowDy)));
+        final int lineHeight = (int) Math.ceil(mTextPaint.descent() - mTextPaint.ascent());
+        final float baseline = -mTextPaint.ascent();
+
+        mTitleLayers[TEXTURE_EXPANDED].setText(snapshot.mExpandedLayout, mTextPaint, padding);
+        if (!TextUtils.isEmpty(snapshot.mCollapsedText)) {
+            mTitleLayers[TEXTURE_COLLAPSED].setText(snapshot.mCollapsedChars, mTextPaint,
+                    baseline, lineHeight, padding);
+        } else {
+            mTitleLayers[TEXTURE_COLLAPSED].clearText();
+        }
+        if (snapshot.mExpandedFirstLineChars != null) {
+            mTitleLayers[TEXTURE_CROSS_SECTION].setText(snapshot.mExpandedFirstLineChars,
+                    mTextPaint, baseline, lineHeight, padding);
+        } else {
+            mTitleLayers[TEXTURE_CROSS_SECTION].clearText();
         }
+        mTitleLayersValid = true;
+        mStats.onTitleRecorded();
     }
 
-    private void ensureCrossSectionTexture() {
-        if (mCrossSectionTitleTexture != null || mCollapsedBounds.isEmpty()
-                || TextUtils.isEmpty(mTextToDraw)) {
+    /**
+     * Moves the title layers to the current frame if they draw the title, or hides them.
+     */
+    private void updateTitleLayers(TitleSnapshot snapshot) {
+        mTitleLayersShown = mUseLayers && mTitleLayersValid;
+        if (mTitleLayers == null) {
             return;
         }
-        calculateOffsets(0f);
-        final int w = Math.round(mTextPaint.measureText(mTextToDraw, mTextLayout.getLineStart(0),
-                mTextLayout.getLineEnd(0)));
-        final int h = Math.round(mTextPaint.descent() - mTextPaint.ascent());
-        if (w <= 0 && h <= 0) {
-            return; // If the width or height are 0, return
+        if (!mTitleLayersShown) {
+            for (TitleLayerView layer : mTitleLayers) {
+                layer.setAlpha(0);
+            }
+            return;
         }
-        mCrossSectionTitleTexture = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        Canvas c = new Canvas(mCrossSectionTitleTexture);
-        c.drawText(mTextToDraw, mTextLayout.getLineStart(0),
-                mTextLayout.getLineEnd(0), 0, -mTextPaint.ascent() / mScale, mTextPaint);
-        if (mTexturePaint == null) {
-            // Make sure we have a paint
-            mTexturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        // Same transformation as in draw(): the expanded layout is scaled around (x, y)
+        final float x = mCurrentDrawX;
+        final float y = mCurrentDrawY;
+        final float currentExpandedX = x + snapshot.getFirstLineLeft(mDrawCollapsedText)
+                - snapshot.mExpandedFirstLineDrawX * 2;
+        mTitleLayers[TEXTURE_EXPANDED].setFrame(x + (currentExpandedX - x) * mScale, y, mScale,
+                mExpandedTextBlend);
+        mTitleLayers[TEXTURE_COLLAPSED].setFrame(x, y, mScale, mCollapsedTextBlend);
+        mTitleLayers[TEXTURE_CROSS_SECTION].setFrame(x, y, mScale, 1f);
+    }
+
+    /**
+     * Sets whether the title layers may be shown, which is the case while the view draws its
+     * title.
+     */
+    void setTitleLayersVisible(boolean visible) {
+        if (mTitleLayersVisible != visible) {
+            mTitleLayersVisible = visible;
+            if (mTitleLayers != null) {
+                for (TitleLayerView layer : mTitleLayers) {
+                    layer.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the title is currently drawn by the title layers, in the overlay of the
+     * view, rather than by {@link #draw(Canvas)}.
+     */
+    boolean isDrawingTitleLayers() {
+        return mTitleLayersShown && mTitleLayersVisible;
+    }
+
+    private void removeTitleLayers() {
+        if (mTitleLayers != null) {
+            for (TitleLayerView layer : mTitleLayers) {
+                ((ViewGroup) mView).getOverlay().remove(layer);
+            }
+            mTitleLayers = null;
+            mTitleLayersValid = false;
+            mTitleLayersShown = false;
         }
     }
     // END MODIFICATION
 
-    public void recalculate() {
-        if (mView.getHeight() > 0 && mView.getWidth() > 0) {
-            // If we've already been laid out, calculate everything now otherwise we'll wait
-            // until a layout
-            calculateBaseOffsets();
+    // BEGIN MODIFICATION: scale quantization
+    /**
+     * Returns {@code scale} snapped to a power of two with {@link #mScaleSteps} steps per octave.
+     * Once the scale is halfway between two steps, it has to move on by
+     * {@link #SCALE_STEP_HYSTERESIS} steps before the next one is used, so that the text doesn't
+     * flicker between two sizes while scrolling slowly back and forth. When it switches, the
+     * previous scale is faded out over {@link #SCALE_STEP_CROSSFADE_FRAMES} frames, see
+     * {@link #isCrossfadingScaleSteps()}.
+     */
+    private float getQuantizedScale(float scale) {
+        final double logBase = Math.log(2) / mScaleSteps;
+        final double position = Math.log(scale) / logBase;
+        final double currentStep = Math.round(Math.log(mQuantizedScale) / logBase);
+        if (Math.abs(position - currentStep) > 0.5f + SCALE_STEP_HYSTERESIS) {
+            mPreviousQuantizedScale = mQuantizedScale;
+            mQuantizedScale = (float) Math.exp(Math.round(position) * logBase);
+            mScaleCrossfadeFrame = 0;
+        }
+        return mQuantizedScale;
+    }
+
+    /**
+     * Returns whether the title is drawn at both the previous and the current quantized scale in
+     * this frame. Each step changes the size of the text by a few percent, which would be visible
+     * as a jump, so the previous step is faded out while the current one is faded in instead.
+     * The steps are still visible during the crossfade, but as a short blur rather than a jump.
+     */
+    private boolean isCrossfadingScaleSteps() {
+        return mScaleCrossfadeFrame < SCALE_STEP_CROSSFADE_FRAMES && mScaleSteps > 0
+                && mScale == mQuantizedScale && mPreviousQuantizedScale != mQuantizedScale;
+    }
+
+    /**
+     * Sets the number of discrete scales per octave the scaled text is drawn at, or {@code 0} to
+     * scale it continuously.
+     */
+    void setScaleSteps(int steps) {
+        if (steps != mScaleSteps) {
+            mScaleSteps = Math.max(steps, 0);
+            mQuantizedScale = 1f;
+            mScaleCrossfadeFrame = SCALE_STEP_CROSSFADE_FRAMES;
             calculateCurrentOffsets();
         }
     }
 
+    int getScaleSteps() {
+        return mScaleSteps;
+    }
+    // END MODIFICATION
+
+    public void recalculate() {
+        // BEGIN MODIFICATION: skip the recalculation if nothing the title depends on has changed
+        // since it was computed. Every setter compares the old and new value and marks the
+        // affected stages dirty, so there is nothing to do unless a stage is dirty or the layout
+        // direction, which isn't set through this class, has changed.
+        final TitleSnapshot snapshot = mSnapshot;
+        if (mDirtyFlags == 0 && snapshot != null
+                && snapshot.mSpec.mDefaultIsRtl == isLayoutRtl()) {
+            mStats.onRecalculationSkipped();
+            return;
+        }
+        // Layouts are only recreated if the new offsets require it
+        invalidate(DIRTY_OFFSETS);
+        // END MODIFICATION
+    }
+
     /**
      * Set the title to display
      *
      * @param text
      */
     void setText(CharSequence text) {
+        // BEGIN MODIFICATION: a synchronously set title supersedes any pending one
+        mTextGeneration++;
+        mPendingText = null;
+        if (updateText(text)) {
+            // MODIFICATION: use a prewarmed snapshot if there is one
+            if (!applyPrewarmedSnapshot(text)) {
+                invalidate(DIRTY_LAYOUT);
+            }
+        }
+        // END MODIFICATION
+    }
+
+    // BEGIN MODIFICATION: new updateText method
+    private boolean updateText(CharSequence text) {
         if (text == null || !text.equals(mText)) {
             mText = text;
-            mTextToDraw = null;
             clearTexture();
-            recalculate();
+            return true;
         }
+        return false;
     }
+    // END MODIFICATION
 
     CharSequence getText() {
-        return mText;
+        // MODIFICATION: report a title which is still being laid out as the current one
+        return mPendingText != null ? mPendingText : mText;
     }
 
-    private void clearTexture() {
-        if (mExpandedTitleTexture != null) {
-            mExpandedTitleTexture.recycle();
-            mExpandedTitleTexture = null;
+    // BEGIN MODIFICATION: asynchronous title precomputation
+    /**
+     * Sets the title to display after computing its {@link TitleSnapshot} on a background thread
+     * for the current configuration. The snapshot is published on the main thread once it is
+     * ready. If the configuration changes before that, the title is laid out again synchronously.
+     */
+    void setTextAsync(CharSequence text) {
+        if (!canPrecompute(text)) {
+            // Nothing to precompute, or no known width to precompute for
+            setText(text);
+            return;
         }
-        // BEGIN MODIFICATION: clear other textures
-        if (mCollapsedTitleTexture != null) {
-            mCollapsedTitleTexture.recycle();
-            mCollapsedTitleTexture = null;
+        final int generation = ++mTextGeneration;
+        mPendingText = text;
+        final TitleSnapshot.Spec spec = createSnapshotSpec(text);
+        ASYNC_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final TitleSnapshot snapshot = TitleSnapshot.create(spec);
+                mView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mTextGeneration) {
+                            applyPendingSnapshot(snapshot);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Lays out {@code text} for the current configuration on a background thread, so that setting
+     * it as the title later on is served from {@link TitleLayoutCache}.
+     */
+    void prefetchText(CharSequence text) {
+        if (canPrecompute(text) && !(text instanceof Spanned)) {
+            final TitleSnapshot.Spec spec = createSnapshotSpec(text);
+            ASYNC_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TitleSnapshot.create(spec);
+                }
+            });
         }
-        if (mCrossSectionTitleTexture != null) {
-            mCrossSectionTitleTexture.recycle();
-            mCrossSectionTitleTexture = null;
+    }
+
+    private void applyPendingSnapshot(TitleSnapshot snapshot) {
+        final CharSequence text = mPendingText;
+        mPendingText = null;
+        updateText(text);
+        if (snapshot.mSpec.equals(createSnapshotSpec(text))) {
+            // Still up to date, swap it in without laying out anything on this thread
+            mSnapshot = snapshot;
+            calculateCurrentOffsets();
+        } else {
+            // The text has changed, so this must not be skipped like recalculate() may be
+            invalidate(DIRTY_OFFSETS);
         }
-        // END MODIFICATION
     }
 
+    /**
+     * Returns whether a {@link TitleSnapshot} for {@code text} can be computed ahead of time,
+     * which requires us to know our bounds.
+     */
+    private boolean canPrecompute(CharSequence text) {
+        return text != null && mDrawTitle && mView.getWidth() > 0 && mView.getHeight() > 0;
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: idle-time prewarming of titles
+    /**
+     * Queues {@code texts} to be laid out for the current configuration whenever the main thread
+     * is idle, one title at a time. Must be called on the main thread.
+     */
+    void prewarmTexts(List<? extends CharSequence> texts) {
+        for (CharSequence text : texts) {
+            if (text != null && !mPrewarmQueue.contains(text)) {
+                mPrewarmQueue.add(text);
+            }
+        }
+        resumePrewarm();
+    }
+
+    /**
+     * Starts prewarming the queued titles while the main thread is idle, if they can be laid out
+     * right now. Prewarming pauses whenever they can't, e.g. before the view has been laid out,
+     * so this has to be called again once that changes.
+     */
+    void resumePrewarm() {
+        if (mPrewarmIdleHandler == null && canPrewarm()) {
+            mPrewarmIdleHandler = new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    final boolean keep = prewarmNextText();
+                    if (!keep) {
+                        mPrewarmIdleHandler = null;
+                    }
+                    return keep;
+                }
+            };
+            Looper.myQueue().addIdleHandler(mPrewarmIdleHandler);
+        }
+    }
+
+    /**
+     * Stops prewarming and drops all prewarmed titles.
+     */
+    void cancelPrewarm() {
+        if (mPrewarmIdleHandler != null) {
+            Looper.myQueue().removeIdleHandler(mPrewarmIdleHandler);
+            mPrewarmIdleHandler = null;
+        }
+        mPrewarmQueue.clear();
+        mPrewarmedSnapshots.evictAll();
+    }
+
+    /**
+     * Returns whether there are queued titles which can be prewarmed right now. The idle handler
+     * is only kept registered while this is the case, so that it neither runs on every idle
+     * message of the main thread nor keeps a detached view alive.
+     */
+    private boolean canPrewarm() {
+        return !mPrewarmQueue.isEmpty() && mDrawTitle && mView.getWidth() > 0
+                && mView.getHeight() > 0 && ViewCompat.isAttachedToWindow(mView);
+    }
+
+    /**
+     * Prewarms the next queued title, returning whether there is more work left which can be
+     * done right now.
+     */
+    private boolean prewarmNextText() {
+        if (!canPrewarm()) {
+            // Paused until resumePrewarm() is called again
+            return false;
+        }
+        final CharSequence text = mPrewarmQueue.poll();
+        mPrewarmedSnapshots.put(text, TitleSnapshot.create(createSnapshotSpec(text)));
+        mStats.onTitlePrewarmed();
+        return !mPrewarmQueue.isEmpty();
+    }
+
+    /**
+     * Swaps in the prewarmed snapshot of {@code text}, if there is one and it is still up to
+     * date. Returns whether that was the case.
+     */
+    private boolean applyPrewarmedSnapshot(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        final TitleSnapshot snapshot = mPrewarmedSnapshots.remove(text);
+        if (snapshot == null) {
+            if (mPrewarmQueue.remove(text)) {
+                // Set before we got to prewarm it
+                mStats.onPrewarmMiss();
+            }
+            return false;
+        }
+        if (mView.getHeight() <= 0 || mView.getWidth() <= 0
+                || !snapshot.mSpec.equals(createSnapshotSpec(text))) {
+            mStats.onPrewarmMiss();
+            return false;
+        }
+        mSnapshot = snapshot;
+        calculateCurrentOffsets();
+        mStats.onPrewarmHit();
+        return true;
+    }
+
+    TitleStats getStats() {
+        return mStats;
+    }
+    // END MODIFICATION
+
+    private void clearTexture() {
+        // MODIFICATION: return the texture atlas to the pool instead of recycling the textures
+        if (mTitleTexture != null) {
+            TitleBitmapPool.release(mTitleTexture);
+            mTitleTexture = null;
+        }
+        // MODIFICATION: the title layers have to draw the title again as well
+        mTitleLayersValid = false;
+    }
+
+    // BEGIN MODIFICATION: release resources, see TitleCachePolicy
+    /**
+     * Releases the textures and recordings of the title, and its layouts if
+     * {@code releaseLayouts} is true. The view is invalidated, so that they are recreated when
+     * the title is drawn next and its last drawing doesn't refer to them anymore.
+     */
+    void releaseCaches(boolean releaseLayouts) {
+        clearTexture();
+        removeTitleLayers();
+        if (releaseLayouts) {
+            mKeyframes = null;
+            mPrewarmedSnapshots.evictAll();
+            if (mSnapshot != null) {
+                mSnapshot = null;
+                mDirtyFlags |= DIRTY_LAYOUT;
+            }
+        }
+        mCachesReleased = true;
+        mView.invalidate();
+    }
+
+    /**
+     * Returns whether the title may currently be on screen, i.e. its view is attached to a
+     * window and visible.
+     */
+    boolean isTitleShown() {
+        return mView.isShown();
+    }
+    // END MODIFICATION
+
     /**
      * Returns true if {@code value} is 'close' to it's closest decimal value. Close is currently
      * defined as it's difference being < 0.001.
@@ -923,7 +2034,7 @@ final class CollapsingTextHelper {
      * @param ratio of which to blend. 0.0 will return {@code color1}, 0.5 will give an even blend,
      *              1.0 will return {@code color2}.
      */
-    private static int blendColors(int color1, int color2, float ratio) {
+    static int blendColors(int color1, int color2, float ratio) {
         final float inverseRatio = 1f - ratio;
         float a = (Color.alpha(color1) * inverseRatio) + (Color.alpha(color2) * ratio);
         float r = (Color.red(color1) * inverseRatio) + (Color.red(color2) * ratio);
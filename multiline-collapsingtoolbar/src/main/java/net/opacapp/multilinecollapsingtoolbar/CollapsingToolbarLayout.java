@@ -36,6 +36,7 @@ import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RestrictTo;
 import android.support.annotation.StyleRes;
+import android.support.annotation.VisibleForTesting;
 import android.support.design.R;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.content.ContextCompat;
@@ -56,6 +57,8 @@ import android.widget.FrameLayout;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * CollapsingToolbarLayout is a wrapper for {@link Toolbar} which implements a collapsing app bar.
@@ -106,6 +109,63 @@ public class CollapsingToolbarLayout extends FrameLayout {
 
     private static final int DEFAULT_SCRIM_ANIMATION_DURATION = 600;
 
+    // BEGIN MODIFICATION: title render modes
+    /** @hide */
+    @RestrictTo(LIBRARY_GROUP)
+    @IntDef({
+            TITLE_RENDER_MODE_DIRECT,
+            TITLE_RENDER_MODE_TEXTURE,
+            TITLE_RENDER_MODE_AUTO,
+            TITLE_RENDER_MODE_RECORDED
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    @interface TitleRenderMode {}
+
+    /**
+     * The scaled title is drawn as text in every frame. This is the default on API 18 and above.
+     */
+    public static final int TITLE_RENDER_MODE_DIRECT = 0;
+
+    /**
+     * The title is rendered into a texture once, which is then scaled while collapsing. It is
+     * rendered again at a few discrete scales to stay sharp. This is the default below API 18,
+     * which can't scale text smoothly.
+     */
+    public static final int TITLE_RENDER_MODE_TEXTURE = 1;
+
+    /**
+     * The title is drawn as text until drawing the scaled title has turned out to be slow on this
+     * device, after which textures are used. Below API 18, textures are always used.
+     *
+     * <p>This is a heuristic based on the frame pacing while the title is scaled: textures are
+     * used once more than a quarter of the frames in a window of 30 started late, i.e. missed a
+     * display refresh. Anything else drawn at the same time can make frames late as well. The
+     * title is drawn as text again, and measured anew, whenever its layout changes.</p>
+     */
+    public static final int TITLE_RENDER_MODE_AUTO = 2;
+
+    /**
+     * The title is drawn into hardware layers once whenever it is laid out, and the layers are
+     * composited with the current scale and alpha in every frame, without drawing the title
+     * again. The layers are rendered at the expanded text size and scaled down like textures.
+     * Requires API 18, falls back to {@link #TITLE_RENDER_MODE_TEXTURE} below. Titles whose
+     * color or shadow change while collapsing are drawn as text.
+     *
+     * <p>The layers are drawn by the overlay of this view, which is drawn below its foreground,
+     * whereas the other modes draw the title above the foreground. The status bar scrim is still
+     * drawn above the title. Without a {@link Toolbar}, the content scrim is drawn below the
+     * title, and so below the foreground as well.</p>
+     *
+     * @see TitleStats#getRecordCount()
+     */
+    public static final int TITLE_RENDER_MODE_RECORDED = 3;
+    // END MODIFICATION
+
+    // MODIFICATION: lets TitleEditorBenchmark inflate toolbars without the batch in the
+    // constructor, to compare both
+    @VisibleForTesting
+    static boolean sBatchInflation = true;
+
     private boolean mRefreshToolbar = true;
     private int mToolbarId;
     private Toolbar mToolbar;
@@ -150,6 +210,11 @@ public class CollapsingToolbarLayout extends FrameLayout {
         ThemeUtils.checkAppCompatTheme(context);
 
         mCollapsingTextHelper = new CollapsingTextHelper(this);
+        // MODIFICATION: apply the title configuration below in a single pass
+        final boolean batch = sBatchInflation;
+        if (batch) {
+            mCollapsingTextHelper.beginBatch();
+        }
         mCollapsingTextHelper.setTextSizeInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
 
         // BEGIN MODIFICATION: use own default style
@@ -240,6 +305,9 @@ public class CollapsingToolbarLayout extends FrameLayout {
         mCollapsingTextHelper.setLineSpacingExtra(typedArray.getFloat(net.opacapp.multilinecollapsingtoolbar.R.styleable.CollapsingToolbarLayoutExtension_lineSpacingExtra, 0));
         mCollapsingTextHelper.setLineSpacingMultiplier(typedArray.getFloat(net.opacapp.multilinecollapsingtoolbar.R.styleable.CollapsingToolbarLayoutExtension_lineSpacingMultiplier, 1));
         typedArray.recycle();
+        if (batch) {
+            mCollapsingTextHelper.endBatch();
+        }
         // END MODIFICATION
     }
 
@@ -292,6 +360,145 @@ public class CollapsingToolbarLayout extends FrameLayout {
     }
     // END MODIFICATION
 
+    // BEGIN MODIFICATION: add setTitleKeyframeSteps and getTitleKeyframeSteps
+    /**
+     * Sets the number of steps at which the position, size, colors and shadow of the title are
+     * precomputed whenever its layout or style changes. While scrolling, these parameters are
+     * then interpolated linearly between the two closest steps instead of being computed
+     * exactly. A value of {@code 0}, the default, computes every frame exactly.
+     */
+    public void setTitleKeyframeSteps(@IntRange(from = 0) int steps) {
+        mCollapsingTextHelper.setKeyframeSteps(steps);
+    }
+
+    /**
+     * Returns the number of steps at which the title parameters are precomputed, or {@code 0}
+     * if every frame is computed exactly.
+     *
+     * @see #setTitleKeyframeSteps(int)
+     */
+    public int getTitleKeyframeSteps() {
+        return mCollapsingTextHelper.getKeyframeSteps();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add setSinglePassCrossfadeEnabled and isSinglePassCrossfadeEnabled
+    /**
+     * Sets whether the crossfade between the expanded and the collapsed title is drawn in a
+     * single pass where possible. The first line, which both share, is then only drawn once
+     * instead of three times on top of each other, which reduces overdraw while scrolling.
+     * Disabled by default.
+     */
+    public void setSinglePassCrossfadeEnabled(boolean enabled) {
+        mCollapsingTextHelper.setSinglePassCrossfadeEnabled(enabled);
+    }
+
+    /**
+     * Returns whether the crossfade of the title is drawn in a single pass where possible.
+     *
+     * @see #setSinglePassCrossfadeEnabled(boolean)
+     */
+    public boolean isSinglePassCrossfadeEnabled() {
+        return mCollapsingTextHelper.isSinglePassCrossfadeEnabled();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add setAlphaTitleTexturesEnabled and isAlphaTitleTexturesEnabled
+    /**
+     * Sets whether the textures used to scale the title, see {@link #setTitleRenderMode(int)},
+     * store only the glyph coverage, tinted with the current text color when drawn. This takes a
+     * quarter of the memory of full color textures. Titles with a shadow or styled spans always
+     * use full color textures. Disabled by default.
+     */
+    public void setAlphaTitleTexturesEnabled(boolean enabled) {
+        mCollapsingTextHelper.setAlphaTexturesEnabled(enabled);
+    }
+
+    /**
+     * Returns whether the title textures store only the glyph coverage where possible.
+     *
+     * @see #setAlphaTitleTexturesEnabled(boolean)
+     */
+    public boolean isAlphaTitleTexturesEnabled() {
+        return mCollapsingTextHelper.isAlphaTexturesEnabled();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add setTitleRenderMode and getTitleRenderMode
+    /**
+     * Sets how the title is drawn while it is being scaled.
+     *
+     * @param mode one of {@link #TITLE_RENDER_MODE_DIRECT}, {@link #TITLE_RENDER_MODE_TEXTURE},
+     *             {@link #TITLE_RENDER_MODE_AUTO} or {@link #TITLE_RENDER_MODE_RECORDED}.
+     */
+    public void setTitleRenderMode(@TitleRenderMode int mode) {
+        mCollapsingTextHelper.setRenderMode(mode);
+    }
+
+    /**
+     * Returns how the title is drawn while it is being scaled.
+     *
+     * @return one of {@link #TITLE_RENDER_MODE_DIRECT}, {@link #TITLE_RENDER_MODE_TEXTURE},
+     * {@link #TITLE_RENDER_MODE_AUTO} or {@link #TITLE_RENDER_MODE_RECORDED}.
+     * @see #setTitleRenderMode(int)
+     */
+    @TitleRenderMode
+    public int getTitleRenderMode() {
+        return mCollapsingTextHelper.getRenderMode();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add setMaxTitleTextureLevels and getMaxTitleTextureLevels
+    /**
+     * Sets the maximum number of sizes between the expanded and the collapsed title size the
+     * title textures are rendered at ahead of time, see {@link #setTitleRenderMode(int)}. Each
+     * frame is then drawn from the closest size, which keeps the title sharp without rendering
+     * it again while scrolling. Fewer levels are rendered if they would exceed the budget of
+     * {@link TitleBitmapPool}. The default of {@code 1} renders a single size, which is replaced
+     * whenever the title has been scaled too far from it.
+     */
+    public void setMaxTitleTextureLevels(@IntRange(from = 1) int levels) {
+        mCollapsingTextHelper.setMaxTextureLevels(levels);
+    }
+
+    /**
+     * Returns the maximum number of sizes the title textures are rendered at.
+     *
+     * @see #setMaxTitleTextureLevels(int)
+     */
+    public int getMaxTitleTextureLevels() {
+        return mCollapsingTextHelper.getMaxTextureLevels();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add setTitleScaleSteps and getTitleScaleSteps
+    /**
+     * Sets the number of discrete scales per octave the title is drawn at while it is scaled as
+     * text, e.g. {@code 12} scales it in steps of about 6%. Every scale the text is drawn at needs
+     * its own glyphs in the font cache of the renderer, so snapping to fewer scales keeps the
+     * cache hits high during a fling. Switching to the next step is delayed slightly, so that the
+     * text doesn't flicker between two steps, and the previous step is crossfaded with the next
+     * one over a few frames. This hides the jump in size, but not the steps themselves: the
+     * title briefly looks blurred at every switch, and both steps are rasterized while they are
+     * crossfaded. A value of {@code 0}, the default, scales the title continuously.
+     *
+     * @see TitleStats#getDistinctGlyphSizeCount()
+     */
+    public void setTitleScaleSteps(@IntRange(from = 0) int steps) {
+        mCollapsingTextHelper.setScaleSteps(steps);
+    }
+
+    /**
+     * Returns the number of discrete scales per octave the title is drawn at, or {@code 0} if it is
+     * scaled continuously.
+     *
+     * @see #setTitleScaleSteps(int)
+     */
+    public int getTitleScaleSteps() {
+        return mCollapsingTextHelper.getScaleSteps();
+    }
+    // END MODIFICATION
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
@@ -319,6 +526,10 @@ public class CollapsingToolbarLayout extends FrameLayout {
         if (mOnOffsetChangedListener != null && parent instanceof AppBarLayout) {
             ((AppBarLayout) parent).removeOnOffsetChangedListener(mOnOffsetChangedListener);
         }
+        // MODIFICATION: don't keep prewarming titles for a detached view
+        mCollapsingTextHelper.cancelPrewarm();
+        // MODIFICATION: release the title textures and caches, see TitleCachePolicy
+        TitleCachePolicy.onDetached(mCollapsingTextHelper);
 
         super.onDetachedFromWindow();
     }
@@ -348,10 +559,9 @@ public class CollapsingToolbarLayout extends FrameLayout {
 
         // If we don't have a toolbar, the scrim will be not be drawn in drawChild() below.
         // Instead, we draw it here, before our collapsing text.
-        ensureToolbar();
-        if (mToolbar == null && mContentScrim != null && mScrimAlpha > 0) {
-            mContentScrim.mutate().setAlpha(mScrimAlpha);
-            mContentScrim.draw(canvas);
+        // MODIFICATION: unless the title layers draw the title, see dispatchDraw()
+        if (!mCollapsingTextHelper.isDrawingTitleLayers()) {
+            drawContentScrimWithoutToolbar(canvas);
         }
 
         // Let the collapsing text helper draw its text
@@ -371,6 +581,26 @@ public class CollapsingToolbarLayout extends FrameLayout {
         }
     }
 
+    // BEGIN MODIFICATION: draw the content scrim below the title layers
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        // The title layers are drawn by the overlay, right after our children and before draw()
+        // continues, so the content scrim has to be drawn here to stay below the title
+        if (mCollapsingTextHelper.isDrawingTitleLayers()) {
+            drawContentScrimWithoutToolbar(canvas);
+        }
+    }
+
+    private void drawContentScrimWithoutToolbar(Canvas canvas) {
+        ensureToolbar();
+        if (mToolbar == null && mContentScrim != null && mScrimAlpha > 0) {
+            mContentScrim.mutate().setAlpha(mScrimAlpha);
+            mContentScrim.draw(canvas);
+        }
+    }
+    // END MODIFICATION
+
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
         // This is a little weird. Our scrim needs to be behind the Toolbar (if it is present),
@@ -534,8 +764,14 @@ public class CollapsingToolbarLayout extends FrameLayout {
                         bottom - top - mExpandedMarginBottom);
                 // Now recalculate using the new bounds
                 mCollapsingTextHelper.recalculate();
+                // MODIFICATION: titles to prewarm can be laid out now
+                mCollapsingTextHelper.resumePrewarm();
             }
         }
+        // MODIFICATION: the title layers, see TITLE_RENDER_MODE_RECORDED, are only shown while
+        // the title is drawn
+        mCollapsingTextHelper.setTitleLayersVisible(
+                mCollapsingTitleEnabled && mDrawCollapsingTitle);
 
         // Update our child view offset helpers. This needs to be done after the title has been
         // setup, so that any Toolbars are in their original position
@@ -589,6 +825,72 @@ public class CollapsingToolbarLayout extends FrameLayout {
         mCollapsingTextHelper.setText(title);
     }
 
+    // BEGIN MODIFICATION: add setTitleAsync, prefetchTitle, prewarmTitles and getTitleStats
+    /**
+     * Sets the title to be displayed by this view, like {@link #setTitle(CharSequence)}, but lays
+     * it out on a background thread first. The new title is shown once that is done, or right
+     * away if this view needs to be laid out again before.
+     *
+     * <p>If this view has not been laid out yet, this is the same as
+     * {@link #setTitle(CharSequence)}.</p>
+     *
+     * @see #prefetchTitle(CharSequence)
+     */
+    public void setTitleAsync(@Nullable CharSequence title) {
+        mCollapsingTextHelper.setTextAsync(title);
+    }
+
+    /**
+     * Lays out a title which is likely to be set soon on a background thread, so that a later
+     * call to {@link #setTitle(CharSequence)} can skip that work. Titles are laid out for the
+     * current size of this view and are shared with other instances.
+     */
+    public void prefetchTitle(@NonNull CharSequence title) {
+        mCollapsingTextHelper.prefetchText(title);
+    }
+
+    /**
+     * Lays out titles which are likely to be set soon, e.g. those of the next pages of a pager,
+     * while the main thread is idle. Setting one of them with {@link #setTitle(CharSequence)}
+     * afterwards does not need to lay it out again, as long as the size of this view and the
+     * title appearance did not change in between. Prewarming waits until this view has been laid
+     * out and stops when it is detached.
+     *
+     * <p>This must be called on the main thread. See {@link #getTitleStats()} for how effective
+     * prewarming is.</p>
+     */
+    public void prewarmTitles(@NonNull List<? extends CharSequence> titles) {
+        mCollapsingTextHelper.prewarmTexts(titles);
+    }
+
+    /**
+     * Returns the counters describing the title work done by this view.
+     */
+    @NonNull
+    public TitleStats getTitleStats() {
+        return mCollapsingTextHelper.getStats();
+    }
+    // END MODIFICATION
+
+    // BEGIN MODIFICATION: add edit
+    /**
+     * Starts a batch of title changes. The title is only laid out and positioned once, when
+     * {@link TitleEditor#apply()} is called, instead of after each change:
+     *
+     * <pre>
+     * toolbarLayout.edit()
+     *         .setTitle(title)
+     *         .setMaxLines(2)
+     *         .setExpandedTitleGravity(Gravity.CENTER)
+     *         .apply();
+     * </pre>
+     */
+    @NonNull
+    public TitleEditor edit() {
+        return new TitleEditor();
+    }
+    // END MODIFICATION
+
     /**
      * Returns the title currently being displayed by this view. If the title is not enabled, then
      * this will return {@code null}.
@@ -1192,6 +1494,209 @@ public class CollapsingToolbarLayout extends FrameLayout {
         return new LayoutParams(p);
     }
 
+    // BEGIN MODIFICATION: add TitleEditor
+    /**
+     * A batch of title changes, see {@link CollapsingToolbarLayout#edit()}. The changes are only
+     * recorded, and made in the order they were recorded when {@link #apply()} is called,
+     * followed by a single recalculation. An editor which is never applied has no effect.
+     */
+    public final class TitleEditor {
+        private final ArrayList<Runnable> mChanges = new ArrayList<>();
+        private boolean mApplied;
+
+        TitleEditor() {
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setTitle(CharSequence)
+         */
+        @NonNull
+        public TitleEditor setTitle(@Nullable final CharSequence title) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setTitle(title);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setCollapsedTitleGravity(int)
+         */
+        @NonNull
+        public TitleEditor setCollapsedTitleGravity(final int gravity) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setCollapsedTitleGravity(gravity);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setExpandedTitleGravity(int)
+         */
+        @NonNull
+        public TitleEditor setExpandedTitleGravity(final int gravity) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setExpandedTitleGravity(gravity);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setCollapsedTitleTextAppearance(int)
+         */
+        @NonNull
+        public TitleEditor setCollapsedTitleTextAppearance(@StyleRes final int resId) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setCollapsedTitleTextAppearance(resId);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setExpandedTitleTextAppearance(int)
+         */
+        @NonNull
+        public TitleEditor setExpandedTitleTextAppearance(@StyleRes final int resId) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setExpandedTitleTextAppearance(resId);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setCollapsedTitleTextColor(ColorStateList)
+         */
+        @NonNull
+        public TitleEditor setCollapsedTitleTextColor(@NonNull final ColorStateList colors) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setCollapsedTitleTextColor(colors);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setExpandedTitleTextColor(ColorStateList)
+         */
+        @NonNull
+        public TitleEditor setExpandedTitleTextColor(@NonNull final ColorStateList colors) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setExpandedTitleTextColor(colors);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setCollapsedTitleTypeface(Typeface)
+         */
+        @NonNull
+        public TitleEditor setCollapsedTitleTypeface(@Nullable final Typeface typeface) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setCollapsedTitleTypeface(typeface);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setExpandedTitleTypeface(Typeface)
+         */
+        @NonNull
+        public TitleEditor setExpandedTitleTypeface(@Nullable final Typeface typeface) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setExpandedTitleTypeface(typeface);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * @see CollapsingToolbarLayout#setMaxLines(int)
+         */
+        @NonNull
+        public TitleEditor setMaxLines(final int maxLines) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setMaxLines(maxLines);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Sets the line spacing extra. The default is 0.0f
+         */
+        @NonNull
+        public TitleEditor setLineSpacingExtra(final float lineSpacingExtra) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setLineSpacingExtra(lineSpacingExtra);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Sets the line spacing multiplier. The default is 1.0f
+         */
+        @NonNull
+        public TitleEditor setLineSpacingMultiplier(final float lineSpacingMultiplier) {
+            mChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    CollapsingToolbarLayout.this.setLineSpacingMultiplier(lineSpacingMultiplier);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Makes all changes recorded by this editor, then lays out and positions the title once.
+         * Must only be called once.
+         */
+        public void apply() {
+            if (mApplied) {
+                throw new IllegalStateException("apply() has already been called");
+            }
+            mApplied = true;
+            mCollapsingTextHelper.beginBatch();
+            try {
+                for (int i = 0; i < mChanges.size(); i++) {
+                    mChanges.get(i).run();
+                }
+            } finally {
+                mCollapsingTextHelper.endBatch();
+            }
+            mChanges.clear();
+        }
+    }
+    // END MODIFICATION
+
     public static class LayoutParams extends FrameLayout.LayoutParams {
 
         private static final float DEFAULT_PARALLAX_MULTIPLIER = 0.5f;
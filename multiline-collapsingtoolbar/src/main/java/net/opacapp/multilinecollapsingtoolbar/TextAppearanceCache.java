@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of the title related attributes of TextAppearance styles, shared between all
+ * {@link CollapsingToolbarLayout} instances.
+ *
+ * <p>Resolving a text appearance means parsing its attributes and, for a font family, creating a
+ * {@link Typeface}. The result only depends on the theme and the style resource, so it is cached
+ * per {@link Resources.Theme} (which is only weakly referenced) and style. The cached values of a
+ * theme are dropped when the configuration of its resources changes.</p>
+ */
+public final class TextAppearanceCache {
+
+    private static final WeakHashMap<Resources.Theme, ThemeEntry> sCache = new WeakHashMap<>();
+
+    private static int sHitCount;
+    private static int sMissCount;
+
+    private TextAppearanceCache() {
+    }
+
+    /**
+     * Returns the number of lookups which found a resolved text appearance.
+     */
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    /**
+     * Returns the number of lookups which had to resolve the text appearance.
+     */
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    /**
+     * Returns the ratio of hits to all lookups, or {@code 0} if there have not been any.
+     */
+    public static synchronized float getHitRate() {
+        final int total = sHitCount + sMissCount;
+        return total > 0 ? (float) sHitCount / total : 0f;
+    }
+
+    /**
+     * Removes all cached text appearances.
+     */
+    public static synchronized void clear() {
+        sCache.clear();
+    }
+
+    /**
+     * Returns the text appearance {@code resId} resolved against the theme of {@code context}.
+     */
+    static synchronized TextAppearance obtain(Context context, int resId) {
+        final Resources.Theme theme = context.getTheme();
+        final Configuration configuration = context.getResources().getConfiguration();
+        ThemeEntry entry = sCache.get(theme);
+        if (entry == null || !entry.mConfiguration.equals(configuration)) {
+            entry = new ThemeEntry(configuration);
+            sCache.put(theme, entry);
+        }
+        TextAppearance appearance = entry.mAppearances.get(resId);
+        if (appearance == null) {
+            sMissCount++;
+            appearance = new TextAppearance(context, resId);
+            entry.mAppearances.put(resId, appearance);
+        } else {
+            sHitCount++;
+        }
+        return appearance;
+    }
+
+    private static final class ThemeEntry {
+        final Configuration mConfiguration;
+        final SparseArray<TextAppearance> mAppearances = new SparseArray<>();
+
+        ThemeEntry(Configuration configuration) {
+            mConfiguration = new Configuration(configuration);
+        }
+    }
+
+    /**
+     * The title related attributes of a TextAppearance style.
+     */
+    static final class TextAppearance {
+        /** The text color, or {@code null} if the style doesn't set one */
+        final ColorStateList mTextColor;
+        final boolean mHasTextSize;
+        final int mTextSize;
+        final int mShadowColor;
+        final float mShadowDx;
+        final float mShadowDy;
+        final float mShadowRadius;
+        /** The typeface of the font family, or {@code null} if none is set or supported */
+        final Typeface mTypeface;
+
+        TextAppearance(Context context, int resId) {
+            TypedArray a = context.obtainStyledAttributes(resId,
+                    android.support.v7.appcompat.R.styleable.TextAppearance);
+            mTextColor = a.hasValue(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor)
+                    ? a.getColorStateList(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textColor)
+                    : null;
+            mHasTextSize = a.hasValue(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize);
+            mTextSize = a.getDimensionPixelSize(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_textSize, 0);
+            mShadowColor = a.getInt(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowColor, 0);
+            mShadowDx = a.getFloat(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDx, 0);
+            mShadowDy = a.getFloat(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowDy, 0);
+            mShadowRadius = a.getFloat(
+                    android.support.v7.appcompat.R.styleable.TextAppearance_android_shadowRadius, 0);
+            a.recycle();
+
+            mTypeface = Build.VERSION.SDK_INT >= 16 ? readFontFamilyTypeface(context, resId) : null;
+        }
+
+        private static Typeface readFontFamilyTypeface(Context context, int resId) {
+            final TypedArray a = context.obtainStyledAttributes(resId,
+                    new int[]{android.R.attr.fontFamily});
+            try {
+                final String family = a.getString(0);
+                if (family != null) {
+                    return Typeface.create(family, Typeface.NORMAL);
+                }
+            } finally {
+                a.recycle();
+            }
+            return null;
+        }
+    }
+}
@@ -17,15 +17,31 @@
 package net.opacapp.multilinecollapsingtoolbar;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 class ThemeUtils {
 
     private static final int[] APPCOMPAT_CHECK_ATTRS = {
             R.attr.colorPrimary
     };
 
+    /**
+     * Themes which have already passed {@link #checkAppCompatTheme(Context)}. Failures are not
+     * remembered, they throw anyway.
+     */
+    private static final Map<Resources.Theme, Boolean> sCheckedThemes = new WeakHashMap<>();
+
     static void checkAppCompatTheme(Context context) {
+        final Resources.Theme theme = context.getTheme();
+        synchronized (sCheckedThemes) {
+            if (theme != null && sCheckedThemes.containsKey(theme)) {
+                return;
+            }
+        }
         TypedArray a = context.obtainStyledAttributes(APPCOMPAT_CHECK_ATTRS);
         final boolean failed = !a.hasValue(0);
         a.recycle();
@@ -33,5 +49,10 @@ class ThemeUtils {
             throw new IllegalArgumentException("You need to use a Theme.AppCompat theme "
                     + "(or descendant) with the design library.");
         }
+        if (theme != null) {
+            synchronized (sCheckedThemes) {
+                sCheckedThemes.put(theme, Boolean.TRUE);
+            }
+        }
     }
 }
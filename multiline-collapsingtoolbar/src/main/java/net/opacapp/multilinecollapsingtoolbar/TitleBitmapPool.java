@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.annotation.IntRange;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Process-wide pool of the bitmaps holding the title texture atlases, full color or
+ * {@link Bitmap.Config#ALPHA_8}, shared between all {@link CollapsingToolbarLayout} instances.
+ * Textures are used on every API level by
+ * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_TEXTURE}, the default below API 18, by
+ * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_AUTO} below API 18 or once drawing the scaled
+ * title as text has turned out to be slow, and by
+ * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_RECORDED} below API 18.
+ *
+ * <p>Textures are recreated whenever the title, its bounds or its style change. Instead of
+ * allocating a new bitmap each time, their dimensions are rounded up to a size class and released
+ * bitmaps are kept for reuse, erased to transparent. Unused bitmaps are recycled in least recently
+ * released order once the pool exceeds its budget, see {@link #setMaxSize(int)}.</p>
+ */
+public final class TitleBitmapPool {
+
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    /** Bitmap dimensions are rounded up to a multiple of this */
+    private static final int SIZE_CLASS = 32;
+
+    /** The pooled bitmaps, least recently released first */
+    private static final ArrayDeque<Bitmap> sBitmaps = new ArrayDeque<>();
+
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sSize;
+    private static int sHitCount;
+    private static int sMissCount;
+
+    private TitleBitmapPool() {
+    }
+
+    /**
+     * Sets the number of bytes the pooled bitmaps may take up. Bitmaps are recycled until the
+     * pool fits the new budget. The default is 4 MiB.
+     */
+    public static synchronized void setMaxSize(@IntRange(from = 0) int maxSizeInBytes) {
+        sMaxSize = maxSizeInBytes;
+        trimToSize(maxSizeInBytes);
+    }
+
+    /**
+     * Returns the number of bytes the pooled bitmaps may take up.
+     */
+    public static synchronized int getMaxSize() {
+        return sMaxSize;
+    }
+
+    /**
+     * Returns the number of bytes taken up by the bitmaps currently in the pool.
+     */
+    public static synchronized int getSize() {
+        return sSize;
+    }
+
+    /**
+     * Returns the number of textures which could reuse a pooled bitmap.
+     */
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    /**
+     * Returns the number of textures which needed a new bitmap.
+     */
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns a transparent bitmap which is at least {@code width} by {@code height} pixels.
+     */
+    static synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        final int pooledWidth = getSizeClass(width);
+        final int pooledHeight = getSizeClass(height);
+        final Iterator<Bitmap> iterator = sBitmaps.descendingIterator();
+        while (iterator.hasNext()) {
+            final Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == pooledWidth && bitmap.getHeight() == pooledHeight
+                    && bitmap.getConfig() == config) {
+                iterator.remove();
+                sSize -= bitmap.getByteCount();
+                sHitCount++;
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+        sMissCount++;
+        return Bitmap.createBitmap(pooledWidth, pooledHeight, config);
+    }
+
+    /**
+     * Returns {@code bitmap} to the pool. It must not be used by the caller anymore.
+     */
+    static synchronized void release(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final int size = bitmap.getByteCount();
+        if (size > sMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        trimToSize(sMaxSize - size);
+        sBitmaps.addLast(bitmap);
+        sSize += size;
+    }
+
+    private static void trimToSize(int maxSize) {
+        while (sSize > maxSize && !sBitmaps.isEmpty()) {
+            final Bitmap bitmap = sBitmaps.removeFirst();
+            sSize -= bitmap.getByteCount();
+            bitmap.recycle();
+        }
+    }
+
+    private static int getSizeClass(int size) {
+        return Math.max(1, (size + SIZE_CLASS - 1) / SIZE_CLASS) * SIZE_CLASS;
+    }
+}
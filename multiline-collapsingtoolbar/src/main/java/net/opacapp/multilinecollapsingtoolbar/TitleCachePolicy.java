@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.IntDef;
+import android.support.annotation.RestrictTo;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Decides when the title textures, recordings and layouts of all
+ * {@link CollapsingToolbarLayout} instances are released, either because a toolbar has been
+ * detached from its window (e.g. while its fragment is in the back stack) or because the system
+ * is running low on memory. Released resources are rebuilt lazily the next time the title is
+ * drawn.
+ *
+ * <p>This class must only be used from the main thread.</p>
+ */
+public final class TitleCachePolicy {
+
+    /** @hide */
+    @RestrictTo(LIBRARY_GROUP)
+    @IntDef({
+            POLICY_KEEP,
+            POLICY_TRIM,
+            POLICY_AGGRESSIVE
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    @interface Policy {}
+
+    /**
+     * Nothing is ever released, which keeps every title ready to be drawn.
+     */
+    public static final int POLICY_KEEP = 0;
+
+    /**
+     * The textures and recordings of a title are released when its toolbar is detached. Those of
+     * all titles which aren't on screen and the pooled bitmaps are released once memory is
+     * running low, those of all titles once the UI has been hidden. Their layouts are released as
+     * well once memory is critically low or the app is likely to be killed in the background.
+     * This is the default.
+     */
+    public static final int POLICY_TRIM = 1;
+
+    /**
+     * Everything, including the layouts of the title, is released when a toolbar is detached and
+     * whenever the system asks to trim memory. Titles on screen are only released once the UI has
+     * been hidden.
+     */
+    public static final int POLICY_AGGRESSIVE = 2;
+
+    private static final WeakHashMap<CollapsingTextHelper, Boolean> sHelpers =
+            new WeakHashMap<>();
+    private static final ArrayList<CollapsingTextHelper> sTmpHelpers = new ArrayList<>();
+
+    private static final ComponentCallbacks2 CALLBACKS = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            TitleCachePolicy.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            TitleCachePolicy.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
+    private static int sPolicy = POLICY_TRIM;
+    private static boolean sRegistered;
+
+    private TitleCachePolicy() {
+    }
+
+    /**
+     * Sets when titles release their resources, one of {@link #POLICY_KEEP},
+     * {@link #POLICY_TRIM} or {@link #POLICY_AGGRESSIVE}.
+     */
+    public static void setPolicy(@Policy int policy) {
+        sPolicy = policy;
+    }
+
+    /**
+     * Returns when titles release their resources.
+     *
+     * @see #setPolicy(int)
+     */
+    @Policy
+    public static int getPolicy() {
+        return sPolicy;
+    }
+
+    /**
+     * Starts listening to memory pressure on behalf of {@code helper}, which is only weakly
+     * referenced.
+     */
+    static void register(Context context, CollapsingTextHelper helper) {
+        if (!sRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(CALLBACKS);
+            sRegistered = true;
+        }
+        sHelpers.put(helper, Boolean.TRUE);
+    }
+
+    /**
+     * Releases the resources of {@code helper} after its view has been detached from its window.
+     */
+    static void onDetached(CollapsingTextHelper helper) {
+        if (sPolicy != POLICY_KEEP) {
+            helper.releaseCaches(sPolicy == POLICY_AGGRESSIVE);
+        }
+    }
+
+    static void onTrimMemory(int level) {
+        final boolean aggressive = sPolicy == POLICY_AGGRESSIVE;
+        if (sPolicy == POLICY_KEEP
+                || (!aggressive && level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)) {
+            return;
+        }
+        final boolean releaseLayouts = aggressive
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+        // While the app is in the foreground, titles on screen keep what they draw
+        final boolean releaseShown = level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+        // Only the bitmaps which were already pooled are recycled. Those released below may
+        // still be referenced by the last drawing of their view until it is drawn again.
+        TitleBitmapPool.clear();
+
+        // Copied, as the weak keys may be cleared while iterating
+        sTmpHelpers.addAll(sHelpers.keySet());
+        for (int i = 0; i < sTmpHelpers.size(); i++) {
+            final CollapsingTextHelper helper = sTmpHelpers.get(i);
+            if (releaseShown || !helper.isTitleShown()) {
+                helper.releaseCaches(releaseLayouts);
+            }
+        }
+        sTmpHelpers.clear();
+
+        if (releaseLayouts) {
+            TitleLayoutCache.clear();
+            TextAppearanceCache.clear();
+        }
+    }
+}
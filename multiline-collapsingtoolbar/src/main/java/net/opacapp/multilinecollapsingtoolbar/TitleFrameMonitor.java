@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.support.annotation.RequiresApi;
+import android.support.v4.view.ViewCompat;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+/**
+ * Watches the frame pacing while the title is scaled and drawn as text, for the
+ * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_AUTO} render mode.
+ *
+ * <p>Timing the draw call itself only measures how long it takes to record the drawing
+ * operations, not how long they take to render. Instead, the start times of consecutive frames
+ * are taken from {@link Choreographer}, which also includes the rendering of the previous frame
+ * when it holds up the next one. A frame is late when it starts later than
+ * {@link #LATE_FRAME_FACTOR} refresh intervals after the previous one.</p>
+ *
+ * <p>Frames are evaluated in windows of {@link #WINDOW_FRAMES}. The title is considered slow as
+ * soon as more than a quarter of the frames of a window were late. This is a heuristic: anything
+ * else which is drawn at the same time makes frames late as well.</p>
+ */
+@RequiresApi(16)
+final class TitleFrameMonitor implements Choreographer.FrameCallback {
+
+    /** Number of frames evaluated together */
+    static final int WINDOW_FRAMES = 30;
+    /** A frame which starts this many refresh intervals after the previous one is late */
+    private static final float LATE_FRAME_FACTOR = 1.5f;
+    /** A pause of this many refresh intervals ends a run of scaled frames */
+    private static final int RUN_GAP_FACTOR = 4;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    interface Listener {
+        /**
+         * Called on the main thread once drawing the scaled title as text has turned out to be
+         * slow.
+         */
+        void onSlowFramesDetected();
+    }
+
+    private final View mView;
+    private final Listener mListener;
+
+    private long mRefreshIntervalNanos;
+    /** The start of the last frame of the current run, or 0 if there is none */
+    private long mLastFrameNanos;
+    private int mFrameCount;
+    private int mLateFrameCount;
+    private boolean mFrameDrawn;
+    private boolean mCallbackPosted;
+    private boolean mSlow;
+
+    TitleFrameMonitor(View view, Listener listener) {
+        mView = view;
+        mListener = listener;
+    }
+
+    /**
+     * Returns whether drawing the scaled title as text has turned out to be slow.
+     */
+    boolean isSlow() {
+        return mSlow;
+    }
+
+    /**
+     * Records that a frame with the title scaled and drawn as text has been drawn.
+     */
+    void onScaledFrameDrawn() {
+        if (mSlow) {
+            return;
+        }
+        mFrameDrawn = true;
+        if (!mCallbackPosted) {
+            mCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Forgets all frames measured so far, e.g. because the title has changed, so that drawing it
+     * as text is tried again.
+     */
+    void reset() {
+        if (mCallbackPosted) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            mCallbackPosted = false;
+        }
+        mLastFrameNanos = 0;
+        mFrameCount = 0;
+        mLateFrameCount = 0;
+        mFrameDrawn = false;
+        mSlow = false;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mCallbackPosted = false;
+        if (!mFrameDrawn) {
+            // No scaled frame since the last one, the run has ended
+            mLastFrameNanos = 0;
+            return;
+        }
+        mFrameDrawn = false;
+        if (mLastFrameNanos == 0) {
+            // The refresh rate may have changed since the last run, e.g. on another display
+            mRefreshIntervalNanos = getRefreshIntervalNanos();
+        } else {
+            final long interval = frameTimeNanos - mLastFrameNanos;
+            if (interval <= RUN_GAP_FACTOR * mRefreshIntervalNanos) {
+                onFrame(interval > LATE_FRAME_FACTOR * mRefreshIntervalNanos);
+            }
+            // Otherwise a new run starts, the pause in between doesn't count
+        }
+        mLastFrameNanos = frameTimeNanos;
+        if (!mSlow) {
+            // Wait for the next frame to find out when it starts
+            mCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private void onFrame(boolean late) {
+        mFrameCount++;
+        if (late) {
+            mLateFrameCount++;
+        }
+        if (mFrameCount < WINDOW_FRAMES) {
+            return;
+        }
+        final boolean slow = mLateFrameCount * 4 > WINDOW_FRAMES;
+        mFrameCount = 0;
+        mLateFrameCount = 0;
+        if (slow) {
+            mSlow = true;
+            mLastFrameNanos = 0;
+            mListener.onSlowFramesDetected();
+        }
+    }
+
+    private long getRefreshIntervalNanos() {
+        final Display display = ViewCompat.getDisplay(mView);
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        if (refreshRate < 1f) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return (long) (1000000000L / refreshRate);
+    }
+}
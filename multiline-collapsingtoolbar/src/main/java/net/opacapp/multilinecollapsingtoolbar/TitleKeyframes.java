@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.support.v4.math.MathUtils;
+
+/**
+ * The per-frame draw parameters of a title, sampled at evenly spaced expansion fractions.
+ *
+ * <p>All of these parameters are pure functions of the expansion fraction once a
+ * {@link TitleSnapshot} has been computed. Baking them allows a frame to be computed by linearly
+ * interpolating between the two closest samples, instead of running the interpolators and
+ * blending colors.</p>
+ *
+ * <p>A frame is made of {@link #FLOAT_COUNT} float parameters and {@link #COLOR_COUNT} colors,
+ * stored in arrays indexed by the constants below.</p>
+ */
+final class TitleKeyframes {
+
+    static final int BOUNDS_LEFT = 0;
+    static final int BOUNDS_TOP = 1;
+    static final int BOUNDS_RIGHT = 2;
+    static final int BOUNDS_BOTTOM = 3;
+    static final int DRAW_X = 4;
+    static final int DRAW_Y = 5;
+    static final int TEXT_SIZE = 6;
+    static final int COLLAPSED_BLEND = 7;
+    static final int EXPANDED_BLEND = 8;
+    static final int SHADOW_RADIUS = 9;
+    static final int SHADOW_DX = 10;
+    static final int SHADOW_DY = 11;
+    static final int FLOAT_COUNT = 12;
+
+    static final int TEXT_COLOR = 0;
+    static final int SHADOW_COLOR = 1;
+    static final int COLOR_COUNT = 2;
+
+    /** The snapshot the frames have been computed for */
+    final TitleSnapshot mSnapshot;
+
+    private final int mSteps;
+    private final float[] mFloats;
+    private final int[] mColors;
+
+    TitleKeyframes(TitleSnapshot snapshot, int steps) {
+        mSnapshot = snapshot;
+        mSteps = steps;
+        mFloats = new float[(steps + 1) * FLOAT_COUNT];
+        mColors = new int[(steps + 1) * COLOR_COUNT];
+    }
+
+    int getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * Returns the expansion fraction of sample {@code step}.
+     */
+    float getFraction(int step) {
+        return (float) step / mSteps;
+    }
+
+    /**
+     * Stores the frame computed for {@link #getFraction(int)} as sample {@code step}.
+     */
+    void setFrame(int step, float[] floats, int[] colors) {
+        System.arraycopy(floats, 0, mFloats, step * FLOAT_COUNT, FLOAT_COUNT);
+        System.arraycopy(colors, 0, mColors, step * COLOR_COUNT, COLOR_COUNT);
+    }
+
+    /**
+     * Computes the frame for {@code fraction} from the two closest samples.
+     */
+    void getFrame(float fraction, float[] floats, int[] colors) {
+        final float position = MathUtils.clamp(fraction, 0f, 1f) * mSteps;
+        final int step = Math.min((int) position, mSteps - 1);
+        final float t = position - step;
+
+        final int start = step * FLOAT_COUNT;
+        for (int i = 0; i < FLOAT_COUNT; i++) {
+            final float from = mFloats[start + i];
+            floats[i] = from + (mFloats[start + FLOAT_COUNT + i] - from) * t;
+        }
+        final int colorStart = step * COLOR_COUNT;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            final int from = mColors[colorStart + i];
+            final int to = mColors[colorStart + COLOR_COUNT + i];
+            colors[i] = from == to ? from : CollapsingTextHelper.blendColors(from, to, t);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.view.View;
+
+/**
+ * A part of the title drawn into a hardware layer, for
+ * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_RECORDED}.
+ *
+ * <p>The text is only rendered into the layer when it changes. While the title collapses, only
+ * the translation, scale and alpha of the view change, which the render thread applies when it
+ * composites the layer, without drawing the text again or going through an offscreen buffer.
+ * Layer views are added to the overlay of the view drawing the title and positioned by
+ * {@link CollapsingTextHelper} in its coordinates. The overlay is drawn on top of the children of
+ * the view, but below its foreground and anything it draws after {@code super.draw()}.</p>
+ */
+final class TitleLayerView extends View {
+
+    private final TextPaint mPaint = new TextPaint();
+    private StaticLayout mLayout;
+    private char[] mChars;
+    private float mBaseline;
+    /** Room for the shadow around the text, on every side */
+    private int mPadding;
+
+    TitleLayerView(Context context) {
+        super(context);
+        setLayerType(LAYER_TYPE_HARDWARE, null);
+        setPivotX(0);
+        setPivotY(0);
+        setAlpha(0);
+    }
+
+    /**
+     * Draws {@code layout} with {@code paint} into the layer.
+     */
+    void setText(StaticLayout layout, TextPaint paint, int padding) {
+        mLayout = layout;
+        mChars = null;
+        setContent(paint, layout.getWidth(), layout.getHeight(), padding);
+    }
+
+    /**
+     * Draws {@code chars} with {@code paint} into the layer, with the baseline at
+     * {@code baseline} below its top.
+     */
+    void setText(char[] chars, TextPaint paint, float baseline, int height, int padding) {
+        mLayout = null;
+        mChars = chars;
+        mBaseline = baseline;
+        setContent(paint, (int) Math.ceil(paint.measureText(chars, 0, chars.length)), height,
+                padding);
+    }
+
+    /**
+     * Removes the text, the layer is not drawn anymore until it gets some again.
+     */
+    void clearText() {
+        mLayout = null;
+        mChars = null;
+        setAlpha(0);
+    }
+
+    private void setContent(TextPaint paint, int width, int height, int padding) {
+        mPaint.set(paint);
+        mPadding = padding;
+        layout(0, 0, width + 2 * padding, height + 2 * padding);
+        invalidate();
+    }
+
+    /**
+     * Draws the text with its top left corner at {@code x}, {@code y} in the coordinates of the
+     * view drawing the title, scaled by {@code scale} and with the given {@code alpha}.
+     */
+    void setFrame(float x, float y, float scale, float alpha) {
+        if (mLayout == null && mChars == null) {
+            return;
+        }
+        setTranslationX(x - mPadding * scale);
+        setTranslationY(y - mPadding * scale);
+        setScaleX(scale);
+        setScaleY(scale);
+        setAlpha(alpha);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.translate(mPadding, mPadding);
+        if (mLayout != null) {
+            // Layouts from TitleLayoutCache share their paint, which has to be synced again by
+            // whoever draws them next
+            final TextPaint layoutPaint = mLayout.getPaint();
+            layoutPaint.set(mPaint);
+            if (layoutPaint instanceof TitleLayoutCache.LayoutPaint) {
+                ((TitleLayoutCache.LayoutPaint) layoutPaint).mOwnerId = 0;
+            }
+            mLayout.draw(canvas);
+        } else if (mChars != null) {
+            canvas.drawText(mChars, 0, mChars.length, 0, mBaseline, mPaint);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.graphics.Typeface;
+import android.support.annotation.IntRange;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.support.v4.util.ObjectsCompat;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * Process-wide cache of the truncated title text and its {@link StaticLayout}, shared between all
+ * {@link CollapsingToolbarLayout} instances.
+ *
+ * <p>Line breaking and truncation only depend on the text and a handful of paint and layout
+ * parameters, so the same title shown again (e.g. when returning to a screen in the back stack)
+ * does not need to be laid out again. The cache is bounded by an estimate of the memory held by
+ * the cached layouts, see {@link #setMaxSize(int)}.</p>
+ *
+ * <p>Styled (spanned) titles are never cached.</p>
+ */
+public final class TitleLayoutCache {
+
+    private static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    private static final LruCache<Key, Entry> sCache = new LruCache<Key, Entry>(DEFAULT_MAX_SIZE) {
+        @Override
+        protected int sizeOf(Key key, Entry entry) {
+            // The key holds its own copy of the visible text, which is not truncated
+            return entry.mSizeInBytes + 2 * key.mText.length();
+        }
+    };
+
+    private TitleLayoutCache() {
+    }
+
+    /**
+     * Sets the memory budget of the cache in bytes. Entries are evicted in least recently used
+     * order until the cache fits the new budget. The default is 256 KiB.
+     */
+    public static void setMaxSize(@IntRange(from = 1) int maxSizeInBytes) {
+        sCache.resize(maxSizeInBytes);
+    }
+
+    /**
+     * Returns the memory budget of the cache in bytes.
+     */
+    public static int getMaxSize() {
+        return sCache.maxSize();
+    }
+
+    /**
+     * Returns the estimated number of bytes currently held by the cache.
+     */
+    public static int getSize() {
+        return sCache.size();
+    }
+
+    /**
+     * Returns the number of lookups which found a cached layout.
+     */
+    public static int getHitCount() {
+        return sCache.hitCount();
+    }
+
+    /**
+     * Returns the number of lookups which had to lay out the title.
+     */
+    public static int getMissCount() {
+        return sCache.missCount();
+    }
+
+    /**
+     * Returns the number of {@link StaticLayout}s created for titles so far, by all
+     * {@link CollapsingToolbarLayout} instances of the process. Changes which don't affect line
+     * breaking, such as text colors, leave this count unchanged.
+     */
+    public static int getLayoutBuildCount() {
+        return TitleTruncator.getLayoutCount();
+    }
+
+    /**
+     * Removes all cached layouts.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Returns the truncated and laid out title for the given parameters, from the cache if
+     * possible. The text size and typeface are taken from {@code paint}. This may be called from
+     * any thread, as long as {@code paint} is not modified concurrently.
+     */
+    static Entry obtain(CharSequence text, TextPaint paint, int width, int maxLines,
+            Layout.Alignment alignment, float lineSpacingMultiplier, float lineSpacingExtra) {
+        // Only the characters which can possibly be visible are copied, hashed and laid out
+        final CharSequence visibleText = TitleTruncator.clip(text, paint, width, maxLines);
+        final boolean clipped = visibleText.length() < text.length();
+        final Key key = Key.create(visibleText, clipped, width, paint.getTextSize(),
+                paint.getTypeface(), maxLines, lineSpacingMultiplier, lineSpacingExtra,
+                alignment);
+        Entry entry = key != null ? sCache.get(key) : null;
+        if (entry == null) {
+            // Cached layouts are shared, so they get a paint of their own
+            entry = TitleTruncator.layout(visibleText, clipped, paint, new LayoutPaint(paint),
+                    width, maxLines, alignment, lineSpacingMultiplier, lineSpacingExtra);
+            if (key != null) {
+                sCache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Everything which influences line breaking and truncation of a title.
+     */
+    static final class Key {
+        private final String mText;
+        private final boolean mClipped;
+        private final int mWidth;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+        private final int mMaxLines;
+        private final float mLineSpacingMultiplier;
+        private final float mLineSpacingExtra;
+        private final Layout.Alignment mAlignment;
+        private final int mHashCode;
+
+        private Key(String text, boolean clipped, int width, float textSize, Typeface typeface,
+                int maxLines, float lineSpacingMultiplier, float lineSpacingExtra,
+                Layout.Alignment alignment) {
+            mText = text;
+            mClipped = clipped;
+            mWidth = width;
+            mTextSize = textSize;
+            mTypeface = typeface;
+            mMaxLines = maxLines;
+            mLineSpacingMultiplier = lineSpacingMultiplier;
+            mLineSpacingExtra = lineSpacingExtra;
+            mAlignment = alignment;
+            int hashCode = text.hashCode();
+            hashCode = 31 * hashCode + (clipped ? 1 : 0);
+            hashCode = 31 * hashCode + width;
+            hashCode = 31 * hashCode + Float.floatToIntBits(textSize);
+            hashCode = 31 * hashCode + (typeface != null ? typeface.hashCode() : 0);
+            hashCode = 31 * hashCode + maxLines;
+            hashCode = 31 * hashCode + Float.floatToIntBits(lineSpacingMultiplier);
+            hashCode = 31 * hashCode + Float.floatToIntBits(lineSpacingExtra);
+            hashCode = 31 * hashCode + alignment.hashCode();
+            mHashCode = hashCode;
+        }
+
+        /**
+         * Returns a key for the given parameters, or {@code null} if the text can not be cached.
+         *
+         * @param text    the visible start of the title, see {@link TitleTruncator#clip}
+         * @param clipped whether the title continues after {@code text}
+         */
+        @Nullable
+        static Key create(CharSequence text, boolean clipped, int width, float textSize,
+                Typeface typeface, int maxLines, float lineSpacingMultiplier,
+                float lineSpacingExtra, Layout.Alignment alignment) {
+            if (text == null || text instanceof Spanned) {
+                return null;
+            }
+            return new Key(text.toString(), clipped, width, textSize, typeface, maxLines,
+                    lineSpacingMultiplier, lineSpacingExtra, alignment);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && mClipped == other.mClipped
+                    && mWidth == other.mWidth
+                    && mMaxLines == other.mMaxLines
+                    && Float.compare(mTextSize, other.mTextSize) == 0
+                    && Float.compare(mLineSpacingMultiplier, other.mLineSpacingMultiplier) == 0
+                    && Float.compare(mLineSpacingExtra, other.mLineSpacingExtra) == 0
+                    && mAlignment == other.mAlignment
+                    && ObjectsCompat.equals(mTypeface, other.mTypeface)
+                    && mText.equals(other.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * The paint of a layout created by this cache. Before drawing, users copy their paint state
+     * into it and record who did so last, so that the copy can be skipped if nothing changed.
+     * Only accessed on the main thread.
+     */
+    static final class LayoutPaint extends TextPaint {
+        /** The id of the last user which synced this paint, or 0 */
+        int mOwnerId;
+        /** The version of the last user's paint state at the time of syncing */
+        int mVersion;
+
+        LayoutPaint(TextPaint paint) {
+            super(paint);
+        }
+    }
+
+    /**
+     * A truncated title and the layout built from it. The layout owns a private copy of the paint
+     * it was created with, so callers have to copy their paint state into
+     * {@link StaticLayout#getPaint()} before drawing it.
+     *
+     * <p>As the main thread may change that paint at any time, other threads must not call any
+     * method of the layout which measures text. The metrics they need are measured once by the
+     * thread building the entry, before it is published.</p>
+     */
+    static final class Entry {
+        final CharSequence mText;
+        final StaticLayout mLayout;
+        final int mSizeInBytes;
+        /** {@link StaticLayout#getLineWidth(int)} of the first line */
+        final float mFirstLineWidth;
+        /** {@link StaticLayout#getLineLeft(int)} of the first line */
+        final float mFirstLineLeft;
+
+        Entry(CharSequence text, StaticLayout layout) {
+            mText = text;
+            mLayout = layout;
+            mFirstLineWidth = layout.getLineCount() > 0 ? layout.getLineWidth(0) : 0;
+            mFirstLineLeft = layout.getLineCount() > 0 ? layout.getLineLeft(0) : 0;
+            // Rough estimate: the characters, the per-line metadata and the object overhead
+            mSizeInBytes = 2 * text.length() + 32 * layout.getLineCount() + 256;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.v4.text.TextDirectionHeuristicsCompat;
+import android.support.v4.util.ObjectsCompat;
+import android.support.v4.view.GravityCompat;
+import android.support.v4.view.ViewCompat;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.view.Gravity;
+
+/**
+ * Immutable geometry of a collapsing title: the truncated collapsed and expanded texts, their
+ * layouts and the positions they are drawn at in both states.
+ *
+ * <p>A snapshot is computed from a {@link Spec} in one go, which can happen on any thread, and
+ * is then swapped in as a whole by {@link CollapsingTextHelper}. Drawing therefore always sees a
+ * consistent state, no matter when the configuration changes.</p>
+ */
+final class TitleSnapshot {
+
+    final Spec mSpec;
+
+    final CharSequence mCollapsedText;
+    final StaticLayout mCollapsedLayout;
+    /** The left of the first line of {@link #mCollapsedLayout} */
+    final float mCollapsedFirstLineLeft;
+    final CharSequence mExpandedText;
+    final StaticLayout mExpandedLayout;
+    /** {@link #mCollapsedText} as characters, so that drawing it doesn't allocate */
+    final char[] mCollapsedChars;
+    /** The first line of {@link #mExpandedText}, which is drawn over the crossfading texts */
+    final char[] mExpandedFirstLineChars;
+    /**
+     * The index of the first character of {@link #mCollapsedChars} after the ones it shares with
+     * {@link #mExpandedFirstLineChars}, or {@code -1} if it doesn't start with the first line.
+     */
+    final int mCollapsedSuffixStart;
+    /** The advance of {@link #mExpandedFirstLineChars} at the expanded text size */
+    final float mExpandedFirstLineAdvance;
+    /** The width of the first line of {@link #mExpandedLayout} */
+    final float mExpandedFirstLineWidth;
+    /**
+     * Whether the crossfade may draw {@link #mExpandedFirstLineChars} once in place of the first
+     * line of {@link #mExpandedLayout},
+     * see {@link #canDrawSinglePass(Layout, char[], char[], Spec)}
+     */
+    final boolean mSinglePassAllowed;
+
+    final float mCollapsedDrawX;
+    final float mCollapsedDrawY;
+    final float mExpandedDrawX;
+    final float mExpandedDrawY;
+    final float mExpandedFirstLineDrawX;
+
+    private TitleSnapshot(Spec spec, TitleSnapshot previous) {
+        mSpec = spec;
+        final TextPaint paint = new TextPaint(spec.mPaint);
+        paint.setTextSize(spec.mCollapsedTextSize);
+        paint.setTypeface(spec.mCollapsedTypeface);
+
+        if (previous != null) {
+            // Only the positions have changed
+            mCollapsedText = previous.mCollapsedText;
+            mCollapsedLayout = previous.mCollapsedLayout;
+            mCollapsedFirstLineLeft = previous.mCollapsedFirstLineLeft;
+        } else if (spec.mText == null || spec.mCollapsedBounds.width() <= 0) {
+            mCollapsedText = null;
+            mCollapsedLayout = null;
+            mCollapsedFirstLineLeft = 0;
+        } else {
+            final TitleLayoutCache.Entry entry = TitleLayoutCache.obtain(spec.mText, paint,
+                    spec.mCollapsedBounds.width(), 1, spec.getAlignment(),
+                    spec.mLineSpacingMultiplier, spec.mLineSpacingExtra);
+            mCollapsedText = entry.mText;
+            mCollapsedLayout = entry.mLayout;
+            mCollapsedFirstLineLeft = entry.mFirstLineLeft;
+        }
+
+        float width = mCollapsedText != null
+                ? paint.measureText(mCollapsedText, 0, mCollapsedText.length()) : 0;
+        float textHeight = mCollapsedLayout != null ? mCollapsedLayout.getHeight() : 0;
+        final Rect collapsedBounds = spec.mCollapsedBounds;
+        final int collapsedAbsGravity = GravityCompat.getAbsoluteGravity(spec.mCollapsedGravity,
+                spec.isRtl(mCollapsedText)
+                        ? ViewCompat.LAYOUT_DIRECTION_RTL : ViewCompat.LAYOUT_DIRECTION_LTR);
+
+        switch (collapsedAbsGravity & Gravity.VERTICAL_GRAVITY_MASK) {
+            case Gravity.BOTTOM:
+                mCollapsedDrawY = collapsedBounds.bottom - textHeight;
+                break;
+            case Gravity.TOP:
+                mCollapsedDrawY = collapsedBounds.top;
+                break;
+            case Gravity.CENTER_VERTICAL:
+            default:
+                mCollapsedDrawY = collapsedBounds.centerY() - (textHeight / 2);
+                break;
+        }
+
+        switch (collapsedAbsGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
+            case Gravity.CENTER_HORIZONTAL:
+                mCollapsedDrawX = collapsedBounds.centerX() - (width / 2);
+                break;
+            case Gravity.RIGHT:
+                mCollapsedDrawX = collapsedBounds.right - width;
+                break;
+            case Gravity.LEFT:
+            default:
+                mCollapsedDrawX = collapsedBounds.left;
+                break;
+        }
+
+        final int expandedWidth = (int) spec.getExpandedAvailableWidth();
+        if (previous != null) {
+            mExpandedText = previous.mExpandedText;
+            mExpandedLayout = previous.mExpandedLayout;
+            mCollapsedChars = previous.mCollapsedChars;
+            mExpandedFirstLineChars = previous.mExpandedFirstLineChars;
+            mCollapsedSuffixStart = previous.mCollapsedSuffixStart;
+            mExpandedFirstLineAdvance = previous.mExpandedFirstLineAdvance;
+            mExpandedFirstLineWidth = previous.mExpandedFirstLineWidth;
+            mExpandedFirstLineDrawX = previous.mExpandedFirstLineDrawX;
+            mSinglePassAllowed = previous.mSinglePassAllowed;
+        } else if (spec.mText == null || expandedWidth <= 0) {
+            mExpandedText = null;
+            mExpandedLayout = null;
+            mCollapsedChars = getChars(mCollapsedText, 0,
+                    mCollapsedText != null ? mCollapsedText.length() : 0);
+            mExpandedFirstLineChars = null;
+            mCollapsedSuffixStart = -1;
+            mExpandedFirstLineAdvance = 0;
+            mExpandedFirstLineWidth = 0;
+            mExpandedFirstLineDrawX = 0;
+            mSinglePassAllowed = false;
+        } else {
+            paint.setTextSize(spec.mExpandedTextSize);
+            paint.setTypeface(spec.mExpandedTypeface);
+            final TitleLayoutCache.Entry entry = TitleLayoutCache.obtain(spec.mText, paint,
+                    expandedWidth, spec.mMaxLines, spec.getAlignment(),
+                    spec.mLineSpacingMultiplier, spec.mLineSpacingExtra);
+            mExpandedText = entry.mText;
+            mExpandedLayout = entry.mLayout;
+            mCollapsedChars = getChars(mCollapsedText, 0,
+                    mCollapsedText != null ? mCollapsedText.length() : 0);
+            mExpandedFirstLineChars = getChars(mExpandedText, mExpandedLayout.getLineStart(0),
+                    mExpandedLayout.getLineEnd(0));
+            mCollapsedSuffixStart = startsWith(mCollapsedChars, mExpandedFirstLineChars)
+                    ? mExpandedFirstLineChars.length : -1;
+            mExpandedFirstLineAdvance = paint.measureText(mExpandedFirstLineChars, 0,
+                    mExpandedFirstLineChars.length);
+            // The paint of the cached layout may be changed by the main thread at any time, so
+            // its metrics are taken from the entry instead of measuring them again
+            mExpandedFirstLineWidth = entry.mFirstLineWidth;
+            mExpandedFirstLineDrawX = entry.mFirstLineLeft;
+            mSinglePassAllowed = mCollapsedSuffixStart >= 0 && canDrawSinglePass(
+                    mExpandedLayout, mExpandedFirstLineChars, mCollapsedChars, spec);
+        }
+
+        width = mExpandedFirstLineWidth;
+        textHeight = mExpandedLayout != null ? mExpandedLayout.getHeight() : 0;
+        final Rect expandedBounds = spec.mExpandedBounds;
+        final int expandedAbsGravity = GravityCompat.getAbsoluteGravity(spec.mExpandedGravity,
+                spec.isRtl(mExpandedText)
+                        ? ViewCompat.LAYOUT_DIRECTION_RTL : ViewCompat.LAYOUT_DIRECTION_LTR);
+
+        switch (expandedAbsGravity & Gravity.VERTICAL_GRAVITY_MASK) {
+            case Gravity.BOTTOM:
+                mExpandedDrawY = expandedBounds.bottom - textHeight;
+                break;
+            case Gravity.TOP:
+                mExpandedDrawY = expandedBounds.top;
+                break;
+            case Gravity.CENTER_VERTICAL:
+            default:
+                mExpandedDrawY = expandedBounds.centerY() - (textHeight / 2);
+                break;
+        }
+
+        switch (expandedAbsGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
+            case Gravity.CENTER_HORIZONTAL:
+                mExpandedDrawX = expandedBounds.centerX() - (width / 2);
+                break;
+            case Gravity.RIGHT:
+                mExpandedDrawX = expandedBounds.right - width;
+                break;
+            case Gravity.LEFT:
+            default:
+                mExpandedDrawX = expandedBounds.left;
+                break;
+        }
+    }
+
+    private static char[] getChars(CharSequence text, int start, int end) {
+        if (text == null) {
+            return null;
+        }
+        final char[] chars = new char[end - start];
+        TextUtils.getChars(text, start, end, chars, 0);
+        return chars;
+    }
+
+    /**
+     * Returns whether the first line of {@code layout} looks the same when its characters are
+     * drawn on their own, left to right from the start of the line, and whether the other lines
+     * can be cut off below it without touching the first one.
+     */
+    private static boolean canDrawSinglePass(Layout layout, char[] firstLineChars,
+            char[] collapsedChars, Spec spec) {
+        if (spec.mLineSpacingMultiplier < 1f || spec.mLineSpacingExtra < 0f) {
+            // The lines overlap, so the ascenders of the second line reach into the first one
+            return false;
+        }
+        if (layout.getParagraphDirection(0) == Layout.DIR_RIGHT_TO_LEFT) {
+            return false;
+        }
+        return isPlainLtr(firstLineChars) && isPlainLtr(collapsedChars);
+    }
+
+    /**
+     * Returns whether {@code chars} are drawn the same by {@link android.graphics.Canvas#drawText}
+     * as by a layout, i.e. there is no right-to-left text to reorder and no tab stop to expand.
+     */
+    private static boolean isPlainLtr(char[] chars) {
+        for (char c : chars) {
+            if (c == '\t') {
+                return false;
+            }
+            switch (Character.getDirectionality(c)) {
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_EMBEDDING:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_OVERRIDE:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(char[] chars, char[] prefix) {
+        if (chars == null || prefix.length > chars.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (chars[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the snapshot for {@code spec}. May be called from any thread.
+     */
+    static TitleSnapshot create(Spec spec) {
+        return new TitleSnapshot(spec, null);
+    }
+
+    /**
+     * Computes the snapshot for {@code spec}, reusing the texts and layouts of {@code previous}
+     * if they are not affected by the differences between both specs, e.g. if only the gravity or
+     * the position of the bounds has changed. Returns {@code previous} itself if nothing changed.
+     */
+    static TitleSnapshot create(Spec spec, TitleSnapshot previous) {
+        if (previous == null || !spec.hasSameLayouts(previous.mSpec)) {
+            return new TitleSnapshot(spec, null);
+        }
+        if (spec.equals(previous.mSpec)) {
+            return previous;
+        }
+        return new TitleSnapshot(spec, previous);
+    }
+
+    /**
+     * Returns the text drawn at the given text size, i.e. the collapsed one if the size is the
+     * collapsed text size and the expanded one otherwise.
+     */
+    CharSequence getText(boolean collapsed) {
+        return collapsed ? mCollapsedText : mExpandedText;
+    }
+
+    StaticLayout getLayout(boolean collapsed) {
+        return collapsed ? mCollapsedLayout : mExpandedLayout;
+    }
+
+    /**
+     * Returns {@link StaticLayout#getLineLeft(int)} of the first line of
+     * {@link #getLayout(boolean)}, without measuring anything.
+     */
+    float getFirstLineLeft(boolean collapsed) {
+        return collapsed ? mCollapsedFirstLineLeft : mExpandedFirstLineDrawX;
+    }
+
+    /**
+     * Everything a {@link TitleSnapshot} is computed from, captured on the thread that owns the
+     * configuration so that it can be used on any other one.
+     */
+    static final class Spec {
+        final CharSequence mText;
+        final TextPaint mPaint;
+        final Rect mCollapsedBounds;
+        final Rect mExpandedBounds;
+        final float mCollapsedTextSize;
+        final float mExpandedTextSize;
+        final Typeface mCollapsedTypeface;
+        final Typeface mExpandedTypeface;
+        final int mCollapsedGravity;
+        final int mExpandedGravity;
+        final int mMaxLines;
+        final float mLineSpacingMultiplier;
+        final float mLineSpacingExtra;
+        final boolean mDefaultIsRtl;
+
+        Spec(CharSequence text, TextPaint paint, Rect collapsedBounds, Rect expandedBounds,
+                float collapsedTextSize, float expandedTextSize, Typeface collapsedTypeface,
+                Typeface expandedTypeface, int collapsedGravity, int expandedGravity,
+                int maxLines, float lineSpacingMultiplier, float lineSpacingExtra,
+                boolean defaultIsRtl) {
+            mText = text;
+            mPaint = new TextPaint(paint);
+            mCollapsedBounds = new Rect(collapsedBounds);
+            mExpandedBounds = new Rect(expandedBounds);
+            mCollapsedTextSize = collapsedTextSize;
+            mExpandedTextSize = expandedTextSize;
+            mCollapsedTypeface = collapsedTypeface;
+            mExpandedTypeface = expandedTypeface;
+            mCollapsedGravity = collapsedGravity;
+            mExpandedGravity = expandedGravity;
+            mMaxLines = maxLines;
+            mLineSpacingMultiplier = lineSpacingMultiplier;
+            mLineSpacingExtra = lineSpacingExtra;
+            mDefaultIsRtl = defaultIsRtl;
+        }
+
+        float getExpandedAvailableWidth() {
+            final float collapsedWidth = mCollapsedBounds.width();
+            final float expandedWidth = mExpandedBounds.width();
+            final float textSizeRatio = mCollapsedTextSize / mExpandedTextSize;
+            // This is the size of the expanded bounds when it is scaled to match the
+            // collapsed text size
+            final float scaledDownWidth = expandedWidth * textSizeRatio;
+
+            if (scaledDownWidth > collapsedWidth) {
+                // If the scaled down size is larger than the actual collapsed width, we need to
+                // cap the available width so that when the expanded text scales down, it matches
+                // the collapsed width
+                return Math.min(collapsedWidth / textSizeRatio, expandedWidth);
+            } else {
+                // Otherwise we'll just use the expanded width
+                return expandedWidth;
+            }
+        }
+
+        Layout.Alignment getAlignment() {
+            // Don't rectify gravity for RTL languages, Layout.Alignment does it already.
+            switch (mExpandedGravity & GravityCompat.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
+                case Gravity.CENTER_HORIZONTAL:
+                    return Layout.Alignment.ALIGN_CENTER;
+                case Gravity.RIGHT:
+                case Gravity.END:
+                    return Layout.Alignment.ALIGN_OPPOSITE;
+                case Gravity.LEFT:
+                case Gravity.START:
+                default:
+                    return Layout.Alignment.ALIGN_NORMAL;
+            }
+        }
+
+        /**
+         * Returns whether the texts and layouts computed for this spec are the same as for
+         * {@code other}.
+         */
+        boolean hasSameLayouts(Spec other) {
+            return ObjectsCompat.equals(mText, other.mText)
+                    && mCollapsedBounds.width() == other.mCollapsedBounds.width()
+                    && (int) getExpandedAvailableWidth() == (int) other.getExpandedAvailableWidth()
+                    && mCollapsedTextSize == other.mCollapsedTextSize
+                    && mExpandedTextSize == other.mExpandedTextSize
+                    && ObjectsCompat.equals(mCollapsedTypeface, other.mCollapsedTypeface)
+                    && ObjectsCompat.equals(mExpandedTypeface, other.mExpandedTypeface)
+                    && getAlignment() == other.getAlignment()
+                    && mMaxLines == other.mMaxLines
+                    && mLineSpacingMultiplier == other.mLineSpacingMultiplier
+                    && mLineSpacingExtra == other.mLineSpacingExtra;
+        }
+
+        boolean isRtl(CharSequence text) {
+            if (text == null) {
+                return mDefaultIsRtl;
+            }
+            return (mDefaultIsRtl
+                    ? TextDirectionHeuristicsCompat.FIRSTSTRONG_RTL
+                    : TextDirectionHeuristicsCompat.FIRSTSTRONG_LTR).isRtl(text, 0, text.length());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Spec)) {
+                return false;
+            }
+            final Spec other = (Spec) o;
+            return ObjectsCompat.equals(mText, other.mText)
+                    && mCollapsedBounds.equals(other.mCollapsedBounds)
+                    && mExpandedBounds.equals(other.mExpandedBounds)
+                    && mCollapsedTextSize == other.mCollapsedTextSize
+                    && mExpandedTextSize == other.mExpandedTextSize
+                    && ObjectsCompat.equals(mCollapsedTypeface, other.mCollapsedTypeface)
+                    && ObjectsCompat.equals(mExpandedTypeface, other.mExpandedTypeface)
+                    && mCollapsedGravity == other.mCollapsedGravity
+                    && mExpandedGravity == other.mExpandedGravity
+                    && mMaxLines == other.mMaxLines
+                    && mLineSpacingMultiplier == other.mLineSpacingMultiplier
+                    && mLineSpacingExtra == other.mLineSpacingExtra
+                    && mDefaultIsRtl == other.mDefaultIsRtl;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mText != null ? mText.hashCode() : 0;
+            result = 31 * result + mCollapsedBounds.hashCode();
+            result = 31 * result + mExpandedBounds.hashCode();
+            result = 31 * result + mMaxLines;
+            return result;
+        }
+    }
+}
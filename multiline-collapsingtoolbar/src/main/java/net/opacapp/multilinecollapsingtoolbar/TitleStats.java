@@ -0,0 +1,333 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+/**
+ * Counters describing the title work done by a single {@link CollapsingToolbarLayout}, see
+ * {@link CollapsingToolbarLayout#getTitleStats()}.
+ *
+ * <p>The counters are only updated on the main thread and are meant for diagnostics and
+ * benchmarks.</p>
+ */
+public final class TitleStats {
+
+    /** The maximum number of distinct glyph sizes counted, see {@link #onGlyphSize(float)} */
+    private static final int MAX_GLYPH_SIZES = 64;
+
+    private int mPrewarmedTitleCount;
+    private int mPrewarmHitCount;
+    private int mPrewarmMissCount;
+    private int mLayoutPassCount;
+    private int mOffsetPassCount;
+    private int mStylePassCount;
+    private int mFrameCount;
+    private int mTextDrawCount;
+    private int mPaintMutationCount;
+    private int mSkippedPaintMutationCount;
+    private int mTextureAtlasRebuildCount;
+    private int mTextureAtlasByteCount;
+    private int mRecordCount;
+    private int mStateColorHitCount;
+    private int mStateColorMissCount;
+    private int mSkippedStateChangeCount;
+    private int mSkippedRecalculationCount;
+    private boolean mGlyphSizeTrackingEnabled;
+    private final float[] mGlyphSizes = new float[MAX_GLYPH_SIZES];
+    private int mGlyphSizeCount;
+
+    TitleStats() {
+    }
+
+    /**
+     * Returns the number of titles which have been laid out ahead of time by
+     * {@link CollapsingToolbarLayout#prewarmTitles(java.util.List)}.
+     */
+    public int getPrewarmedTitleCount() {
+        return mPrewarmedTitleCount;
+    }
+
+    /**
+     * Returns how often a prewarmed title was set and could be shown without laying it out again.
+     */
+    public int getPrewarmHitCount() {
+        return mPrewarmHitCount;
+    }
+
+    /**
+     * Returns how often a title passed to
+     * {@link CollapsingToolbarLayout#prewarmTitles(java.util.List)} was set before it had been
+     * prewarmed, or after the prewarmed layout had become outdated (e.g. because the toolbar was
+     * resized).
+     */
+    public int getPrewarmMissCount() {
+        return mPrewarmMissCount;
+    }
+
+    /**
+     * Returns the ratio of prewarm hits to all prewarmed titles which have been set, or {@code 0}
+     * if none have been set yet.
+     */
+    public float getPrewarmHitRate() {
+        final int total = mPrewarmHitCount + mPrewarmMissCount;
+        return total > 0 ? (float) mPrewarmHitCount / total : 0f;
+    }
+
+    /**
+     * Returns how often the title had to be truncated and laid out again, e.g. because the title,
+     * its text size or its typeface changed. Most of these passes are served from
+     * {@link TitleLayoutCache}, see {@link TitleLayoutCache#getLayoutBuildCount()} for the number
+     * of layouts which actually had to be built.
+     */
+    public int getLayoutPassCount() {
+        return mLayoutPassCount;
+    }
+
+    /**
+     * Returns how often the title position was recalculated without laying the title out again,
+     * e.g. because the gravity or the position of the toolbar changed.
+     */
+    public int getOffsetPassCount() {
+        return mOffsetPassCount;
+    }
+
+    /**
+     * Returns how often only the text color or shadow had to be updated.
+     */
+    public int getStylePassCount() {
+        return mStylePassCount;
+    }
+
+    /**
+     * Returns the number of frames in which the title has been drawn.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of text and texture draw calls issued to draw the title. Divided by
+     * {@link #getFrameCount()}, this is the number of draw calls per frame.
+     */
+    public int getTextDrawCount() {
+        return mTextDrawCount;
+    }
+
+    /**
+     * Returns how often the paint used to draw the title has actually been changed.
+     */
+    public int getPaintMutationCount() {
+        return mPaintMutationCount;
+    }
+
+    /**
+     * Returns how often changing the paint used to draw the title, or copying it into a shared
+     * layout, could be skipped because the value was already set.
+     */
+    public int getSkippedPaintMutationCount() {
+        return mSkippedPaintMutationCount;
+    }
+
+    /**
+     * Returns how often the texture atlas used to scale the title had to be rendered, see
+     * {@link CollapsingToolbarLayout#setTitleRenderMode(int)}.
+     */
+    public int getTextureAtlasRebuildCount() {
+        return mTextureAtlasRebuildCount;
+    }
+
+    /**
+     * Returns the size in bytes of the most recently rendered texture atlas, or {@code 0} if none
+     * has been rendered yet. This is not reset by {@link #reset()}.
+     */
+    public int getTextureAtlasByteCount() {
+        return mTextureAtlasByteCount;
+    }
+
+    /**
+     * Sets whether the text sizes the title is drawn at are tracked, see
+     * {@link #getDistinctGlyphSizeCount()}. Disabled by default, as this costs a little time in
+     * every frame.
+     */
+    public void setGlyphSizeTrackingEnabled(boolean enabled) {
+        mGlyphSizeTrackingEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the text sizes the title is drawn at are tracked.
+     *
+     * @see #setGlyphSizeTrackingEnabled(boolean)
+     */
+    public boolean isGlyphSizeTrackingEnabled() {
+        return mGlyphSizeTrackingEnabled;
+    }
+
+    /**
+     * Returns the number of distinct text sizes the title has been drawn at as text while glyph
+     * size tracking was enabled, taking the scale into account. Each size needs its own glyphs in
+     * the font cache of the renderer, see {@link CollapsingToolbarLayout#setTitleScaleSteps(int)}.
+     * At most 64 sizes are counted.
+     *
+     * @see #setGlyphSizeTrackingEnabled(boolean)
+     */
+    public int getDistinctGlyphSizeCount() {
+        return mGlyphSizeCount;
+    }
+
+    /**
+     * Returns how often the title has been recorded for
+     * {@link CollapsingToolbarLayout#TITLE_RENDER_MODE_RECORDED}. It is only recorded again after
+     * its layout, color or shadow changed, never while scrolling.
+     */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns how often the text colors for a drawable state could be taken from the colors
+     * resolved for a recently seen state.
+     */
+    public int getStateColorHitCount() {
+        return mStateColorHitCount;
+    }
+
+    /**
+     * Returns how often the text colors had to be resolved for a drawable state.
+     */
+    public int getStateColorMissCount() {
+        return mStateColorMissCount;
+    }
+
+    /**
+     * Returns how often the drawable state changed without changing the text colors, e.g. when
+     * the toolbar is pressed or focused but its colors don't depend on it. Nothing at all is
+     * recalculated for these. Changes which do change the colors are counted as style passes,
+     * see {@link #getStylePassCount()}.
+     */
+    public int getSkippedStateChangeCount() {
+        return mSkippedStateChangeCount;
+    }
+
+    /**
+     * Returns how often laying out the toolbar didn't recalculate the title, because neither
+     * the title, its style nor its bounds had changed, e.g. when an unrelated child requested a
+     * layout.
+     */
+    public int getSkippedRecalculationCount() {
+        return mSkippedRecalculationCount;
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        mPrewarmedTitleCount = 0;
+        mPrewarmHitCount = 0;
+        mPrewarmMissCount = 0;
+        mLayoutPassCount = 0;
+        mOffsetPassCount = 0;
+        mStylePassCount = 0;
+        mFrameCount = 0;
+        mTextDrawCount = 0;
+        mPaintMutationCount = 0;
+        mSkippedPaintMutationCount = 0;
+        mTextureAtlasRebuildCount = 0;
+        mRecordCount = 0;
+        mStateColorHitCount = 0;
+        mStateColorMissCount = 0;
+        mSkippedStateChangeCount = 0;
+        mSkippedRecalculationCount = 0;
+        mGlyphSizeCount = 0;
+    }
+
+    void onTitlePrewarmed() {
+        mPrewarmedTitleCount++;
+    }
+
+    void onPrewarmHit() {
+        mPrewarmHitCount++;
+    }
+
+    void onPrewarmMiss() {
+        mPrewarmMissCount++;
+    }
+
+    void onLayoutPass() {
+        mLayoutPassCount++;
+    }
+
+    void onOffsetPass() {
+        mOffsetPassCount++;
+    }
+
+    void onStylePass() {
+        mStylePassCount++;
+    }
+
+    void onFrame() {
+        mFrameCount++;
+    }
+
+    void onTextDraw(int count) {
+        mTextDrawCount += count;
+    }
+
+    void onPaintMutation() {
+        mPaintMutationCount++;
+    }
+
+    void onPaintMutationSkipped() {
+        mSkippedPaintMutationCount++;
+    }
+
+    void onTextureAtlasRebuild(int byteCount) {
+        mTextureAtlasRebuildCount++;
+        mTextureAtlasByteCount = byteCount;
+    }
+
+    /**
+     * Records a text size the title has been drawn at. Must only be called while glyph size
+     * tracking is enabled.
+     */
+    void onGlyphSize(float textSize) {
+        for (int i = 0; i < mGlyphSizeCount; i++) {
+            if (mGlyphSizes[i] == textSize) {
+                return;
+            }
+        }
+        if (mGlyphSizeCount < MAX_GLYPH_SIZES) {
+            mGlyphSizes[mGlyphSizeCount++] = textSize;
+        }
+    }
+
+    void onTitleRecorded() {
+        mRecordCount++;
+    }
+
+    void onStateColorLookup(boolean hit) {
+        if (hit) {
+            mStateColorHitCount++;
+        } else {
+            mStateColorMissCount++;
+        }
+    }
+
+    void onStateChangeSkipped() {
+        mSkippedStateChangeCount++;
+    }
+
+    void onRecalculationSkipped() {
+        mSkippedRecalculationCount++;
+    }
+}
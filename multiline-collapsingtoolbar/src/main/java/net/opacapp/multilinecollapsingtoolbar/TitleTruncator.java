@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.os.Build;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Truncates a title to a maximum number of lines and lays out the result.
+ *
+ * <p>Instead of laying out the whole text just to find out where the last visible line ends,
+ * line breaks are found greedily with {@link TextPaint#breakText}, stopping as soon as
+ * {@code maxLines} lines have been filled. Lines are broken at the last line break opportunity
+ * that fits, as found by a line {@link BreakIterator} for the text locale, which follows the
+ * Unicode line breaking algorithm (UAX #14) like {@link StaticLayout} does. The ellipsis is placed
+ * directly on the last line and only the final, truncated text is laid out. In the rare case
+ * where the result still needs more lines (e.g. because of hyphenation or a different break
+ * strategy of the platform), the text is truncated using the real line breaks of a full layout
+ * instead.</p>
+ *
+ * <p>Callers first {@link #clip} the text to the window of characters which can possibly be
+ * visible, see {@link #getCharacterWindow(TextPaint, int, int)}. Nothing after that window is
+ * ever looked at, including by the fallback, so the cost depends on the number of visible lines
+ * rather than on the length of the text.</p>
+ */
+final class TitleTruncator {
+
+    private static final String ELLIPSIS = "\u2026";
+
+    /**
+     * Glyphs which are among the narrowest in most fonts, used to estimate how many characters
+     * can possibly fit into a line.
+     */
+    private static final String NARROW_GLYPHS = "il.,:;'|!\u2009";
+
+    private static final int WINDOW_SLACK = 16;
+
+    private static final AtomicInteger sLayoutCount = new AtomicInteger();
+
+    /** Line break iterators are not thread-safe, so each thread gets its own */
+    private static final ThreadLocal<LineBreaker> sLineBreaker = new ThreadLocal<>();
+
+    private TitleTruncator() {
+    }
+
+    /**
+     * Returns the start of {@code text} which can possibly be visible in {@code maxLines} lines
+     * of {@code width} pixels, or {@code text} itself if all of it might be.
+     */
+    static CharSequence clip(CharSequence text, TextPaint paint, int width, int maxLines) {
+        final int window = getCharacterWindow(paint, width, maxLines);
+        return window < text.length() ? text.subSequence(0, window) : text;
+    }
+
+    /**
+     * Truncates {@code text} to {@code maxLines} lines of {@code width} pixels and lays it out.
+     *
+     * @param text        the title, or the start of it as returned by {@link #clip}
+     * @param clipped     whether {@code text} has been clipped, in which case it is ellipsized
+     *                    even if it fits
+     * @param paint       paint used for measuring
+     * @param layoutPaint paint the returned layout is built with
+     */
+    static TitleLayoutCache.Entry layout(CharSequence text, boolean clipped, TextPaint paint,
+            TextPaint layoutPaint, int width, int maxLines, Layout.Alignment alignment,
+            float lineSpacingMultiplier, float lineSpacingExtra) {
+        CharSequence truncatedText = truncate(text, clipped, paint, width, maxLines);
+        StaticLayout layout = newLayout(truncatedText, layoutPaint, width, alignment,
+                lineSpacingMultiplier, lineSpacingExtra);
+        if (layout.getLineCount() > maxLines) {
+            // Our line breaks did not match the ones of StaticLayout, fall back to the real ones
+            final StaticLayout fullLayout = newLayout(text, paint, width,
+                    Layout.Alignment.ALIGN_NORMAL, lineSpacingMultiplier, lineSpacingExtra);
+            final int lineCount = fullLayout.getLineCount();
+            if (lineCount > maxLines || clipped) {
+                final int lastLine = Math.min(maxLines, lineCount) - 1;
+                truncatedText = ellipsize(text, fullLayout.getLineStart(lastLine),
+                        fullLayout.getLineEnd(lastLine), paint, width);
+            } else {
+                truncatedText = text;
+            }
+            layout = newLayout(truncatedText, layoutPaint, width, alignment,
+                    lineSpacingMultiplier, lineSpacingExtra);
+        }
+        return new TitleLayoutCache.Entry(truncatedText, layout);
+    }
+
+    /**
+     * Returns the number of {@link StaticLayout}s created so far, in the whole process.
+     */
+    static int getLayoutCount() {
+        return sLayoutCount.get();
+    }
+
+    private static StaticLayout newLayout(CharSequence text, TextPaint paint, int width,
+            Layout.Alignment alignment, float lineSpacingMultiplier, float lineSpacingExtra) {
+        sLayoutCount.incrementAndGet();
+        return new StaticLayout(text, paint, width, alignment, lineSpacingMultiplier,
+                lineSpacingExtra, false);
+    }
+
+    /**
+     * Returns {@code text} itself if it fits into {@code maxLines} lines, or the text of the
+     * first {@code maxLines} lines with an ellipsis at the end of the last one. A clipped text
+     * always gets an ellipsis, at the end of its last line if it fits (which only happens if the
+     * window was too small to tell, e.g. because of zero-width characters).
+     */
+    static CharSequence truncate(CharSequence text, boolean clipped, TextPaint paint, int width,
+            int maxLines) {
+        final int length = text.length();
+        int lineStart = 0;
+        for (int line = 0; line < maxLines && lineStart < length; line++) {
+            final int lineEnd = findLineEnd(text, lineStart, length, paint, width);
+            if (lineEnd >= length) {
+                // The rest of the text fits on this line
+                return clipped ? ellipsize(text, lineStart, length, paint, width) : text;
+            }
+            if (line == maxLines - 1) {
+                return ellipsize(text, lineStart, lineEnd, paint, width);
+            }
+            lineStart = lineEnd;
+        }
+        return text;
+    }
+
+    /**
+     * Returns a conservative upper bound of the number of characters which fit into
+     * {@code maxLines} lines of {@code width} pixels, based on the narrowest common glyphs.
+     */
+    static int getCharacterWindow(TextPaint paint, int width, int maxLines) {
+        float minAdvance = Float.MAX_VALUE;
+        for (int i = 0; i < NARROW_GLYPHS.length(); i++) {
+            minAdvance = Math.min(minAdvance, paint.measureText(NARROW_GLYPHS, i, i + 1));
+        }
+        if (minAdvance <= 0 || width <= 0 || maxLines <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        // Leave some slack for combining marks and kerning
+        final long charsPerLine = 2 * ((long) Math.ceil(width / minAdvance) + 1);
+        return (int) Math.min(Integer.MAX_VALUE, maxLines * charsPerLine + WINDOW_SLACK);
+    }
+
+    /**
+     * Returns the end of the line starting at {@code start}, including trailing whitespace and
+     * line breaks, the same way {@link StaticLayout#getLineEnd(int)} does.
+     */
+    private static int findLineEnd(CharSequence text, int start, int length, TextPaint paint,
+            int width) {
+        int paragraphEnd = start;
+        while (paragraphEnd < length && text.charAt(paragraphEnd) != '\n') {
+            paragraphEnd++;
+        }
+        final int end = findFittingEnd(text, start, paragraphEnd, paint, width);
+        if (end >= paragraphEnd) {
+            // The rest of the paragraph fits, the line break belongs to this line
+            return paragraphEnd < length ? paragraphEnd + 1 : length;
+        }
+        if (end == start) {
+            // Not even a single character fits, it gets a line of its own
+            return start + 1;
+        }
+        // Break at the last break opportunity that still fits. Only the characters up to the
+        // first one that doesn't fit are needed to find it, so the iterator never sees more than
+        // a line.
+        final BreakIterator iterator = getLineBreaker(paint);
+        iterator.setText(text.subSequence(start, end + 1).toString());
+        final int breakOffset = iterator.isBoundary(end - start)
+                ? end - start : iterator.preceding(end - start);
+        if (breakOffset > 0 && breakOffset != BreakIterator.DONE) {
+            return start + breakOffset;
+        }
+        // A single word wider than the line is broken where it stops fitting
+        return end;
+    }
+
+    /**
+     * Returns the end of the characters from {@code start} which fit into {@code width}, plus
+     * the whitespace following them, which is allowed to hang past the line width.
+     */
+    private static int findFittingEnd(CharSequence text, int start, int paragraphEnd,
+            TextPaint paint, int width) {
+        int end = start + paint.breakText(text, start, paragraphEnd, true, width, null);
+
+        // Trailing whitespace is allowed to hang past the line width
+        while (end < paragraphEnd && isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the line break iterator of the calling thread for the locale of {@code paint}.
+     */
+    private static BreakIterator getLineBreaker(TextPaint paint) {
+        final Locale locale = Build.VERSION.SDK_INT >= 17
+                ? paint.getTextLocale() : Locale.getDefault();
+        LineBreaker lineBreaker = sLineBreaker.get();
+        if (lineBreaker == null || !lineBreaker.mLocale.equals(locale)) {
+            lineBreaker = new LineBreaker(locale);
+            sLineBreaker.set(lineBreaker);
+        }
+        return lineBreaker.mIterator;
+    }
+
+    /**
+     * Places an ellipsis at the end of the line from {@code lineStart} to {@code lineEnd},
+     * cutting off as many characters as needed to make it fit.
+     */
+    private static CharSequence ellipsize(CharSequence text, int lineStart, int lineEnd,
+            TextPaint paint, int width) {
+        int end = lineEnd;
+        // Trailing whitespace and line breaks are dropped in front of the ellipsis
+        while (end > lineStart && (isWhitespace(text.charAt(end - 1))
+                || text.charAt(end - 1) == '\n')) {
+            end--;
+        }
+        final float availableWidth = width - paint.measureText(ELLIPSIS);
+        if (availableWidth > 0 && end > lineStart) {
+            end = lineStart + paint.breakText(text, lineStart, end, true, availableWidth, null);
+        } else {
+            end = lineStart;
+        }
+        return TextUtils.concat(text.subSequence(0, end), ELLIPSIS);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static final class LineBreaker {
+        final Locale mLocale;
+        final BreakIterator mIterator;
+
+        LineBreaker(Locale locale) {
+            mLocale = locale;
+            mIterator = BreakIterator.getLineInstance(locale);
+        }
+    }
+}
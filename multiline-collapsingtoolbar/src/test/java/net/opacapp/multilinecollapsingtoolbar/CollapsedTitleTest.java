@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks which texts are visible once the title is fully collapsed. Robolectric doesn't measure
+ * text, so the texts are mostly ellipses and empty lines, but it tells which of them are drawn.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class CollapsedTitleTest {
+
+    @Test
+    public void collapsedFrameOnlyShowsCollapsedText() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        // Expanded, the cross-section drawn last is the first line of the expanded text
+        helper.setExpansionFraction(0f);
+        helper.draw(canvas);
+        final String firstLine = canvas.getRecordText(canvas.getRecordCount() - 1);
+
+        canvas.reset();
+        helper.setExpansionFraction(1f);
+        helper.draw(canvas);
+        String collapsedText = null;
+        int visibleCount = 0;
+        for (int i = 0; i < canvas.getRecordCount(); i++) {
+            if (Color.alpha(canvas.getRecordColor(i)) == 0) {
+                continue;
+            }
+            final String text = canvas.getRecordText(i);
+            if (collapsedText == null) {
+                collapsedText = text;
+            }
+            assertEquals("Visible text " + i, collapsedText, text);
+            visibleCount++;
+        }
+        // The collapsed text and the cross-section
+        assertEquals(2, visibleCount);
+        assertTrue(collapsedText.length() > 0);
+        // Otherwise, drawing the expanded first line as the cross-section wouldn't be noticed
+        assertNotEquals(firstLine, collapsedText);
+    }
+}
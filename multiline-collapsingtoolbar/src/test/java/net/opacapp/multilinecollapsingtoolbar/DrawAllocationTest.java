@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that scrolling the title doesn't allocate once the layouts, offsets and textures have
+ * been created.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DrawAllocationTest {
+
+    /**
+     * Robolectric's instrumented framework classes allocate about 12 KiB once the JIT compiles
+     * the draw path, which happened within the measured frames after a warm-up of 1000 frames.
+     */
+    private static final int WARM_UP_FRAMES = 5000;
+    private static final int FRAMES = 10000;
+    private static final int FRAMES_PER_COLLAPSE = 120;
+
+    /**
+     * Allocations allowed on top of those of an empty measured loop, see
+     * {@link #measureBaseline(RecordingCanvas)}. Under Robolectric 3.8, the scroll allocated
+     * between 0 and 280 bytes in 10000 frames after the warm-up, and the empty loop between 72
+     * and 248 bytes. Allocating a single object every 64 frames exceeds this.
+     */
+    private static final long ALLOCATION_BUDGET = 2 * 1024;
+
+    @Test
+    public void scrollDoesNotAllocate() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        assertWithinBudget(helper);
+    }
+
+    @Test
+    public void scrollWithKeyframesDoesNotAllocate() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setKeyframeSteps(32);
+        assertWithinBudget(helper);
+    }
+
+    @Test
+    public void scrollWithTexturesDoesNotAllocate() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_TEXTURE);
+        assertWithinBudget(helper);
+    }
+
+    private static void assertWithinBudget(CollapsingTextHelper helper) {
+        final RecordingCanvas canvas = new RecordingCanvas();
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            drawFrame(helper, canvas, frame);
+        }
+        final long baseline = measureBaseline(canvas);
+        canvas.reset();
+
+        final long start = getAllocatedBytes();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            drawFrame(helper, canvas, frame);
+        }
+        final long allocated = getAllocatedBytes() - start;
+
+        assertTrue("Nothing drawn",
+                canvas.getTextDrawCount() + canvas.getBitmapDrawCount() >= FRAMES);
+        assertTrue(allocated + " bytes allocated in " + FRAMES + " frames, " + baseline
+                        + " without drawing",
+                allocated <= baseline + ALLOCATION_BUDGET);
+    }
+
+    /**
+     * Returns the bytes allocated by the measurement itself and by a loop of {@link #FRAMES}
+     * which only computes the fraction and resets the canvas, the most of a few runs.
+     */
+    private static long measureBaseline(RecordingCanvas canvas) {
+        long baseline = 0;
+        float fractions = 0;
+        for (int run = 0; run < 3; run++) {
+            final long start = getAllocatedBytes();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                fractions += TitleTestUtils.getScrollFraction(frame, FRAMES_PER_COLLAPSE);
+                canvas.reset();
+            }
+            baseline = Math.max(baseline, getAllocatedBytes() - start);
+        }
+        assertTrue(fractions > 0);
+        return baseline;
+    }
+
+    private static long getAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void drawFrame(CollapsingTextHelper helper, RecordingCanvas canvas,
+            int frame) {
+        helper.setExpansionFraction(TitleTestUtils.getScrollFraction(frame, FRAMES_PER_COLLAPSE));
+        helper.draw(canvas);
+    }
+}
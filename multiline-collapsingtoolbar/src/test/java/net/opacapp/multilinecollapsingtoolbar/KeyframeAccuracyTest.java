@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Compares the frames drawn from baked keyframes with the ones computed exactly.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, shadows = RecordingCanvas.PivotScaleShadow.class)
+public class KeyframeAccuracyTest {
+
+    private static final int KEYFRAME_STEPS = 64;
+    /** Not a multiple of the keyframe steps, so that most frames fall between two samples */
+    private static final int FRAMES = 997;
+
+    private static final float MAX_POSITION_ERROR = 0.5f;
+    private static final float MAX_SCALE_ERROR = 0.002f;
+    private static final int MAX_COLOR_ERROR = 2;
+
+    @Test
+    public void keyframesMatchExactFrames() {
+        final CollapsingTextHelper exact = createHelper(0);
+        final CollapsingTextHelper baked = createHelper(KEYFRAME_STEPS);
+        final RecordingCanvas exactCanvas = new RecordingCanvas();
+        final RecordingCanvas bakedCanvas = new RecordingCanvas();
+
+        for (int frame = 0; frame <= FRAMES; frame++) {
+            final float fraction = (float) frame / FRAMES;
+            exact.setExpansionFraction(fraction);
+            baked.setExpansionFraction(fraction);
+            exactCanvas.reset();
+            bakedCanvas.reset();
+            exact.draw(exactCanvas);
+            baked.draw(bakedCanvas);
+
+            final String at = " at " + fraction + ", text ";
+            final int count = exactCanvas.getRecordCount();
+            assertTrue("Nothing drawn at " + fraction, count > 0);
+            assertEquals("Texts drawn at " + fraction, count, bakedCanvas.getRecordCount());
+            for (int i = 0; i < count; i++) {
+                assertEquals("x" + at + i, exactCanvas.getRecordX(i),
+                        bakedCanvas.getRecordX(i), MAX_POSITION_ERROR);
+                assertEquals("y" + at + i, exactCanvas.getRecordY(i),
+                        bakedCanvas.getRecordY(i), MAX_POSITION_ERROR);
+                // Not the scale: the exact frame may already draw the collapsed text at a
+                // scale of 1 where the baked one still scales the expanded text down to it
+                final float textSize = exactCanvas.getRecordTextSize(i);
+                assertEquals("Text size" + at + i, textSize, bakedCanvas.getRecordTextSize(i),
+                        textSize * MAX_SCALE_ERROR);
+                assertColor("Color" + at + i, exactCanvas.getRecordColor(i),
+                        bakedCanvas.getRecordColor(i));
+            }
+        }
+    }
+
+    private static CollapsingTextHelper createHelper(int keyframeSteps) {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.beginBatch();
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setPositionInterpolator(AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+        helper.setExpandedTextColor(ColorStateList.valueOf(Color.argb(200, 255, 64, 0)));
+        helper.setCollapsedTextColor(ColorStateList.valueOf(Color.argb(255, 0, 32, 128)));
+        helper.endBatch();
+        helper.setKeyframeSteps(keyframeSteps);
+        return helper;
+    }
+
+    private static void assertColor(String message, int expected, int actual) {
+        assertEquals(message + " alpha", Color.alpha(expected), Color.alpha(actual),
+                MAX_COLOR_ERROR);
+        assertEquals(message + " red", Color.red(expected), Color.red(actual), MAX_COLOR_ERROR);
+        assertEquals(message + " green", Color.green(expected), Color.green(actual),
+                MAX_COLOR_ERROR);
+        assertEquals(message + " blue", Color.blue(expected), Color.blue(actual),
+                MAX_COLOR_ERROR);
+    }
+}
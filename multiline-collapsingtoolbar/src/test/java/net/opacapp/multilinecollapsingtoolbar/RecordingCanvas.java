@@ -0,0 +1,265 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowCanvas;
+
+/**
+ * A canvas which doesn't draw anything, but counts the draw calls it receives and records which
+ * of the first {@link #MAX_RECORDS} texts were drawn, where and in which color. Only translations
+ * and scales are supported. Nothing is allocated while drawing, so it doesn't distort allocation
+ * measurements.
+ *
+ * <p>Scales around a pivot are only recorded with {@link PivotScaleShadow} in the shadows of the
+ * test, as Robolectric handles them in its own shadow otherwise.</p>
+ */
+class RecordingCanvas extends Canvas {
+
+    static final int MAX_RECORDS = 32;
+    private static final int MAX_SAVE_COUNT = 16;
+
+    private int mSaveCount = 1;
+    private int mTextDrawCount;
+    private int mBitmapDrawCount;
+
+    // The current transformation and the ones saved before, indexed by save count
+    private final float[] mTranslateX = new float[MAX_SAVE_COUNT];
+    private final float[] mTranslateY = new float[MAX_SAVE_COUNT];
+    private final float[] mScale = new float[MAX_SAVE_COUNT];
+
+    private int mRecordCount;
+    private final float[] mRecordX = new float[MAX_RECORDS];
+    private final float[] mRecordY = new float[MAX_RECORDS];
+    private final float[] mRecordScale = new float[MAX_RECORDS];
+    private final float[] mRecordTextSize = new float[MAX_RECORDS];
+    private final int[] mRecordColor = new int[MAX_RECORDS];
+    /** The drawn text, either a {@code char[]} or a {@link CharSequence}, and its range */
+    private final Object[] mRecordText = new Object[MAX_RECORDS];
+    private final int[] mRecordStart = new int[MAX_RECORDS];
+    private final int[] mRecordEnd = new int[MAX_RECORDS];
+
+    RecordingCanvas() {
+        mScale[mSaveCount] = 1f;
+    }
+
+    int getTextDrawCount() {
+        return mTextDrawCount;
+    }
+
+    int getBitmapDrawCount() {
+        return mBitmapDrawCount;
+    }
+
+    /**
+     * Returns the number of recorded texts, at most {@link #MAX_RECORDS}.
+     */
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns the x coordinate the origin of recorded text {@code index} was drawn at.
+     */
+    float getRecordX(int index) {
+        return mRecordX[index];
+    }
+
+    /**
+     * Returns the y coordinate the baseline of recorded text {@code index} was drawn at.
+     */
+    float getRecordY(int index) {
+        return mRecordY[index];
+    }
+
+    /**
+     * Returns the scale recorded text {@code index} was drawn at.
+     */
+    float getRecordScale(int index) {
+        return mRecordScale[index];
+    }
+
+    /**
+     * Returns the size recorded text {@code index} was rasterized at, its text size multiplied by
+     * its scale.
+     */
+    float getRecordTextSize(int index) {
+        return mRecordTextSize[index];
+    }
+
+    /**
+     * Returns the color, including the alpha, recorded text {@code index} was drawn in.
+     */
+    int getRecordColor(int index) {
+        return mRecordColor[index];
+    }
+
+    /**
+     * Returns recorded text {@code index}.
+     */
+    String getRecordText(int index) {
+        final Object text = mRecordText[index];
+        final int start = mRecordStart[index];
+        final int end = mRecordEnd[index];
+        return text instanceof char[]
+                ? new String((char[]) text, start, end - start)
+                : ((CharSequence) text).subSequence(start, end).toString();
+    }
+
+    void reset() {
+        mTextDrawCount = 0;
+        mBitmapDrawCount = 0;
+        mRecordCount = 0;
+    }
+
+    @Override
+    public int save() {
+        final int saveCount = mSaveCount++;
+        mTranslateX[mSaveCount] = mTranslateX[saveCount];
+        mTranslateY[mSaveCount] = mTranslateY[saveCount];
+        mScale[mSaveCount] = mScale[saveCount];
+        return saveCount;
+    }
+
+    @Override
+    public int getSaveCount() {
+        return mSaveCount;
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        mSaveCount = saveCount;
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mTranslateX[mSaveCount] += dx * mScale[mSaveCount];
+        mTranslateY[mSaveCount] += dy * mScale[mSaveCount];
+    }
+
+    @Override
+    public void scale(float sx, float sy) {
+        if (sx != sy) {
+            throw new UnsupportedOperationException("Only uniform scales are supported");
+        }
+        mScale[mSaveCount] *= sx;
+    }
+
+    @Override
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        return true;
+    }
+
+    @Override
+    public boolean getClipBounds(Rect bounds) {
+        bounds.set(-Integer.MAX_VALUE / 2, -Integer.MAX_VALUE / 2,
+                Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2);
+        return true;
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        onText(text, index, index + count, x, y, paint);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) {
+        onText(text, 0, text.length(), x, y, paint);
+    }
+
+    @Override
+    public void drawText(String text, int start, int end, float x, float y, Paint paint) {
+        onText(text, start, end, x, y, paint);
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+        onText(text, start, end, x, y, paint);
+    }
+
+    @Override
+    public void drawTextRun(char[] text, int index, int count, int contextIndex,
+            int contextCount, float x, float y, boolean isRtl, Paint paint) {
+        onText(text, index, index + count, x, y, paint);
+    }
+
+    @Override
+    public void drawTextRun(CharSequence text, int start, int end, int contextStart,
+            int contextEnd, float x, float y, boolean isRtl, Paint paint) {
+        onText(text, start, end, x, y, paint);
+    }
+
+    private void onText(Object text, int start, int end, float x, float y, Paint paint) {
+        mTextDrawCount++;
+        if (mRecordCount < MAX_RECORDS) {
+            final float scale = mScale[mSaveCount];
+            mRecordX[mRecordCount] = mTranslateX[mSaveCount] + x * scale;
+            mRecordY[mRecordCount] = mTranslateY[mSaveCount] + y * scale;
+            mRecordScale[mRecordCount] = scale;
+            mRecordTextSize[mRecordCount] = paint.getTextSize() * scale;
+            // Robolectric's Paint doesn't apply setAlpha() to getColor()
+            mRecordColor[mRecordCount] = (paint.getColor() & 0xffffff) | (paint.getAlpha() << 24);
+            mRecordText[mRecordCount] = text;
+            mRecordStart[mRecordCount] = start;
+            mRecordEnd[mRecordCount] = end;
+            mRecordCount++;
+        }
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        mBitmapDrawCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        mBitmapDrawCount++;
+    }
+
+    @Override
+    public void drawPicture(Picture picture) {
+        mBitmapDrawCount++;
+    }
+
+    /**
+     * Implements {@link Canvas#scale(float, float, float, float)}, which can't be overridden, the
+     * way the platform does, so that the transformation ends up in {@link RecordingCanvas}.
+     */
+    @Implements(Canvas.class)
+    public static class PivotScaleShadow extends ShadowCanvas {
+
+        @RealObject
+        private Canvas mRealCanvas;
+
+        @Implementation
+        @Override
+        public void scale(float sx, float sy, float px, float py) {
+            if (sx != 1f || sy != 1f) {
+                mRealCanvas.translate(px, py);
+                mRealCanvas.scale(sx, sy);
+                mRealCanvas.translate(-px, -py);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that the title never jumps from one quantized scale to the next, but crossfades both
+ * over a few frames, see {@link CollapsingToolbarLayout#setTitleScaleSteps(int)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, shadows = RecordingCanvas.PivotScaleShadow.class)
+public class ScaleStepCrossfadeTest {
+
+    private static final int SCALE_STEPS = 12;
+    private static final int FRAMES = 600;
+    /** The collapsed text is drawn at a scale of 1 again, so the scroll stops short of it */
+    private static final float MAX_FRACTION = 0.9f;
+    /** Frames after which a crossfade has to be finished, with some slack */
+    private static final int MAX_CROSSFADE_FRAMES = 8;
+    /** Scales closer than this are considered the same step, about a hundredth of a step */
+    private static final float SCALE_TOLERANCE = 1e-3f;
+
+    private final float[] mScales = new float[2];
+    private final int[] mAlphas = new int[2];
+
+    @Test
+    public void switchesBetweenStepsWithoutJumps() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setScaleSteps(SCALE_STEPS);
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        float previousScale = 1f;
+        int previousCount = 1;
+        int crossfadeFrames = 0;
+        int outgoingAlpha = 0;
+        int switchCount = 0;
+        for (int frame = 0; frame <= FRAMES; frame++) {
+            canvas.reset();
+            helper.setExpansionFraction(MAX_FRACTION * frame / FRAMES);
+            helper.draw(canvas);
+            final int count = collectVisibleScales(canvas);
+            if (count == 1) {
+                if (previousCount == 1 && !isSameScale(mScales[0], previousScale)) {
+                    throw new AssertionError("Frame " + frame + " jumps from scale "
+                            + previousScale + " to " + mScales[0]);
+                }
+                previousScale = mScales[0];
+                crossfadeFrames = 0;
+            } else {
+                // The outgoing scale is drawn first, at an alpha decreasing with every frame
+                assertEquals("Frame " + frame, previousScale, mScales[0], SCALE_TOLERANCE);
+                assertTrue("Frame " + frame, mAlphas[0] > 0 && mAlphas[1] > 0);
+                assertTrue("Frame " + frame,
+                        crossfadeFrames == 0 || mAlphas[0] < outgoingAlpha);
+                outgoingAlpha = mAlphas[0];
+                if (crossfadeFrames++ == 0) {
+                    switchCount++;
+                }
+                assertTrue("Crossfade not finished", crossfadeFrames <= MAX_CROSSFADE_FRAMES);
+            }
+            previousCount = count;
+        }
+        // Scrolling from a scale of 1 to about 0.7 passes several steps
+        assertTrue("Only " + switchCount + " switches", switchCount >= 4);
+    }
+
+    @Test
+    public void finishesCrossfadeOnceTheScrollStops() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setRenderMode(CollapsingToolbarLayout.TITLE_RENDER_MODE_DIRECT);
+        helper.setScaleSteps(SCALE_STEPS);
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        // Jump far enough to switch to another step, then keep drawing the same frame
+        helper.setExpansionFraction(0.5f);
+        int crossfadeFrames = 0;
+        for (int frame = 0; frame < 2 * MAX_CROSSFADE_FRAMES; frame++) {
+            canvas.reset();
+            helper.draw(canvas);
+            if (collectVisibleScales(canvas) > 1) {
+                crossfadeFrames++;
+            }
+        }
+        assertTrue("No crossfade", crossfadeFrames > 0);
+        assertTrue("Crossfade not finished", crossfadeFrames <= MAX_CROSSFADE_FRAMES);
+    }
+
+    /**
+     * Collects the distinct scales of the visible texts drawn into {@code canvas}, in the order
+     * they were drawn, and the highest alpha drawn at each, returning their number.
+     */
+    private int collectVisibleScales(RecordingCanvas canvas) {
+        int count = 0;
+        for (int i = 0; i < canvas.getRecordCount(); i++) {
+            final int alpha = Color.alpha(canvas.getRecordColor(i));
+            if (alpha == 0) {
+                continue;
+            }
+            final float scale = canvas.getRecordScale(i);
+            int index = 0;
+            while (index < count && !isSameScale(mScales[index], scale)) {
+                index++;
+            }
+            if (index == count) {
+                assertTrue("More than two scales drawn", count < mScales.length);
+                mScales[count] = scale;
+                mAlphas[count] = 0;
+                count++;
+            }
+            mAlphas[index] = Math.max(mAlphas[index], alpha);
+        }
+        return count;
+    }
+
+    private static boolean isSameScale(float scale, float otherScale) {
+        return Math.abs(scale - otherScale) < SCALE_TOLERANCE;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that drawable state changes of stateful title colors only update the colors, without
+ * laying out or positioning the title again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class StateColorTest {
+
+    private static final int TOGGLES = 200;
+
+    private static final int[] PRESSED = {android.R.attr.state_pressed};
+    private static final int[] FOCUSED = {android.R.attr.state_focused};
+    private static final int[] DEFAULT = {};
+
+    private static final ColorStateList COLORS = new ColorStateList(
+            new int[][]{PRESSED, FOCUSED, DEFAULT},
+            new int[]{Color.RED, Color.GREEN, Color.BLUE});
+
+    @After
+    public void clearCache() {
+        TitleLayoutCache.clear();
+    }
+
+    @Test
+    public void stateChangesDontLayOut() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setExpandedTextColor(COLORS);
+        helper.setCollapsedTextColor(COLORS);
+        helper.setExpansionFraction(0.5f);
+        final RecordingCanvas canvas = new RecordingCanvas();
+        helper.draw(canvas);
+
+        final TitleStats stats = helper.getStats();
+        stats.reset();
+        final int layoutBuilds = TitleLayoutCache.getLayoutBuildCount();
+        final int[][] states = {PRESSED, DEFAULT, FOCUSED, DEFAULT};
+        final int[] colors = {Color.RED, Color.BLUE, Color.GREEN, Color.BLUE};
+        for (int i = 0; i < TOGGLES; i++) {
+            final int index = i % states.length;
+            assertTrue("State change ignored", helper.setState(states[index]));
+            canvas.reset();
+            helper.draw(canvas);
+            assertTrue(canvas.getRecordCount() > 0);
+            for (int text = 0; text < canvas.getRecordCount(); text++) {
+                // The crossfade changes the alpha only
+                assertEquals("Color of text " + text + " after " + i + " toggles",
+                        colors[index] & 0xffffff, canvas.getRecordColor(text) & 0xffffff);
+            }
+        }
+
+        assertEquals(layoutBuilds, TitleLayoutCache.getLayoutBuildCount());
+        assertEquals(0, stats.getLayoutPassCount());
+        assertEquals(0, stats.getOffsetPassCount());
+        assertEquals(TOGGLES, stats.getStylePassCount());
+    }
+
+    @Test
+    public void unchangedColorsAreSkipped() {
+        final CollapsingTextHelper helper = TitleTestUtils.createHelper(TitleTestUtils.TITLE);
+        helper.setExpandedTextColor(COLORS);
+        helper.setCollapsedTextColor(COLORS);
+        helper.setState(DEFAULT);
+        final TitleStats stats = helper.getStats();
+        stats.reset();
+        final int layoutBuilds = TitleLayoutCache.getLayoutBuildCount();
+
+        // Neither state has a color of its own, so the default one applies to all of them
+        final int[] selected = {android.R.attr.state_selected};
+        final int[] enabled = {android.R.attr.state_enabled};
+        for (int i = 0; i < TOGGLES; i++) {
+            assertFalse("State change not skipped",
+                    helper.setState(i % 2 == 0 ? selected : enabled));
+        }
+
+        assertEquals(layoutBuilds, TitleLayoutCache.getLayoutBuildCount());
+        assertEquals(TOGGLES, stats.getSkippedStateChangeCount());
+        assertEquals(0, stats.getLayoutPassCount());
+        assertEquals(0, stats.getOffsetPassCount());
+        assertEquals(0, stats.getStylePassCount());
+    }
+}
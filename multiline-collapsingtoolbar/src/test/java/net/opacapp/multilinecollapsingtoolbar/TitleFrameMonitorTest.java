@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Feeds frame times to {@link TitleFrameMonitor} and checks when it switches the AUTO render
+ * mode to textures. The view is not attached, so the default refresh rate of 60 Hz applies.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TitleFrameMonitorTest {
+
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    private TitleFrameMonitor mMonitor;
+    private int mSlowCount;
+    private long mFrameTime;
+
+    @Before
+    public void createMonitor() {
+        // The frame callbacks are called by the tests, with frame times of their own
+        ShadowLooper.pauseMainLooper();
+        mMonitor = new TitleFrameMonitor(new View(RuntimeEnvironment.application),
+                new TitleFrameMonitor.Listener() {
+                    @Override
+                    public void onSlowFramesDetected() {
+                        mSlowCount++;
+                    }
+                });
+        mFrameTime = 1000000000L;
+    }
+
+    @Test
+    public void smoothFramesStayOnText() {
+        for (int i = 0; i < 10 * TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(1);
+        }
+        assertFalse(mMonitor.isSlow());
+        assertEquals(0, mSlowCount);
+    }
+
+    @Test
+    public void occasionalLateFramesStayOnText() {
+        // A fifth of the frames miss a refresh
+        for (int i = 0; i < 10 * TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(i % 5 == 0 ? 2 : 1);
+        }
+        assertFalse(mMonitor.isSlow());
+    }
+
+    @Test
+    public void frequentLateFramesSwitchToTextures() {
+        // Every third frame misses a refresh
+        for (int i = 0; i < TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(i % 3 == 0 ? 2 : 1);
+        }
+        // The window ends with the first frame after it
+        drawFrame(1);
+        assertTrue(mMonitor.isSlow());
+        assertEquals(1, mSlowCount);
+
+        // Frames drawn with textures are not watched anymore
+        for (int i = 0; i < TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(2);
+        }
+        assertEquals(1, mSlowCount);
+    }
+
+    @Test
+    public void lateFramesAreCountedInEveryWindow() {
+        for (int i = 0; i < 5 * TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(1);
+        }
+        assertFalse(mMonitor.isSlow());
+        for (int i = 0; i <= TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(3);
+        }
+        assertTrue(mMonitor.isSlow());
+    }
+
+    @Test
+    public void pausesBetweenScrollsDontCount() {
+        for (int scroll = 0; scroll < 20; scroll++) {
+            for (int i = 0; i < 10; i++) {
+                drawFrame(1);
+            }
+            // The user lifts their finger for a second, and then scrolls again
+            mFrameTime += 60 * FRAME_NANOS;
+            mMonitor.doFrame(mFrameTime);
+        }
+        assertFalse(mMonitor.isSlow());
+    }
+
+    @Test
+    public void resetTriesTextAgain() {
+        for (int i = 0; i <= TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(2);
+        }
+        assertTrue(mMonitor.isSlow());
+
+        mMonitor.reset();
+        assertFalse(mMonitor.isSlow());
+        for (int i = 0; i < 10 * TitleFrameMonitor.WINDOW_FRAMES; i++) {
+            drawFrame(1);
+        }
+        assertFalse(mMonitor.isSlow());
+    }
+
+    /**
+     * Draws a scaled frame, and starts the next one {@code refreshes} refresh intervals later.
+     */
+    private void drawFrame(int refreshes) {
+        mMonitor.onScaledFrameDrawn();
+        mFrameTime += refreshes * FRAME_NANOS;
+        mMonitor.doFrame(mFrameTime);
+    }
+}
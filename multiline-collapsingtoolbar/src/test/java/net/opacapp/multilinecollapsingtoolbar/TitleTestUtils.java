@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.opacapp.multilinecollapsingtoolbar;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.support.v4.view.GravityCompat;
+import android.view.Gravity;
+import android.view.View;
+
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Creates {@link CollapsingTextHelper} instances positioned like the title of a typical
+ * {@link CollapsingToolbarLayout}, without inflating one.
+ */
+final class TitleTestUtils {
+
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 600;
+    static final int COLLAPSED_HEIGHT = 168;
+    static final float EXPANDED_TEXT_SIZE = 96;
+    static final float COLLAPSED_TEXT_SIZE = 60;
+
+    static final String TITLE = "A collapsing toolbar with a rather long title that wraps over"
+            + " several lines of text";
+
+    private TitleTestUtils() {
+    }
+
+    /**
+     * Returns a helper showing {@code title}, laid out and fully expanded.
+     */
+    static CollapsingTextHelper createHelper(CharSequence title) {
+        final View view = new View(RuntimeEnvironment.application);
+        view.layout(0, 0, WIDTH, HEIGHT);
+        final CollapsingTextHelper helper = new CollapsingTextHelper(view);
+        helper.beginBatch();
+        helper.setTextSizeInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
+        helper.setExpandedTextSize(EXPANDED_TEXT_SIZE);
+        helper.setCollapsedTextSize(COLLAPSED_TEXT_SIZE);
+        helper.setExpandedTextColor(ColorStateList.valueOf(Color.WHITE));
+        helper.setCollapsedTextColor(ColorStateList.valueOf(Color.BLACK));
+        helper.setExpandedTextGravity(GravityCompat.START | Gravity.BOTTOM);
+        helper.setCollapsedTextGravity(GravityCompat.START | Gravity.CENTER_VERTICAL);
+        helper.setExpandedBounds(48, COLLAPSED_HEIGHT, WIDTH - 48, HEIGHT - 48);
+        helper.setCollapsedBounds(216, 0, WIDTH - 48, COLLAPSED_HEIGHT);
+        helper.setText(title);
+        helper.endBatch();
+        return helper;
+    }
+
+    /**
+     * Returns the expansion fraction of a scroll going back and forth between expanded and
+     * collapsed, taking {@code framesPerCollapse} frames in each direction.
+     */
+    static float getScrollFraction(int frame, int framesPerCollapse) {
+        final int position = frame % (2 * framesPerCollapse);
+        return position <= framesPerCollapse
+                ? (float) position / framesPerCollapse
+                : (float) (2 * framesPerCollapse - position) / framesPerCollapse;
+    }
+}